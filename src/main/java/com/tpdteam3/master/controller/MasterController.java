@@ -1,16 +1,22 @@
 package com.tpdteam3.master.controller;
 
 import com.tpdteam3.master.model.FileMetadata;
+import com.tpdteam3.master.service.AccessTrackingService;
+import com.tpdteam3.master.service.ChunkRebalancerService;
+import com.tpdteam3.master.service.ChunkInventoryService;
+import com.tpdteam3.master.service.HotReplicationService;
+import com.tpdteam3.master.service.IntegrityReconcilerService;
 import com.tpdteam3.master.service.MasterService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.client.RestTemplate;
 
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/master")
@@ -20,24 +26,44 @@ public class MasterController {
     @Autowired
     private MasterService masterService;
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    @Autowired
+    private ChunkRebalancerService rebalancerService;
+
+    @Autowired
+    private AccessTrackingService accessTracker;
+
+    @Autowired
+    private HotReplicationService hotReplicationService;
+
+    @Autowired
+    private ChunkInventoryService inventoryService;
+
+    @Autowired
+    private IntegrityReconcilerService reconcilerService;
 
     /**
      * Endpoint para planificar la subida de un archivo CON REPLICACIÓN
+     * Acepta opcionalmente "chunkHashes" (SHA-256 en hexadecimal de cada fragmento) para deduplicar:
+     * los fragmentos marcados como "deduplicated" ya están almacenados y no deben escribirse
+     * El plan queda pendiente hasta que el cliente lo confirma en /commit antes de "expiresAt"
      */
     @PostMapping("/upload")
+    @SuppressWarnings("unchecked")
     public ResponseEntity<Map<String, Object>> planUpload(@RequestBody Map<String, Object> request) {
         try {
             String imagenId = (String) request.get("imagenId");
             Number sizeNumber = (Number) request.get("size");
             long size = sizeNumber.longValue();
+            List<String> chunkHashes = (List<String>) request.get("chunkHashes");
 
-            FileMetadata metadata = masterService.planUpload(imagenId, size);
+            FileMetadata metadata = masterService.planUpload(imagenId, size, chunkHashes);
 
             Map<String, Object> response = new HashMap<>();
             response.put("status", "success");
             response.put("imagenId", metadata.getImagenId());
             response.put("chunks", metadata.getChunks());
+            response.put("writesRequired", masterService.countWritesRequired(metadata));
+            response.put("expiresAt", masterService.getPendingExpiration(imagenId));
             response.put("replicationFactor", metadata.getChunks().size() /
                                               (metadata.getChunks().stream()
                                                        .mapToInt(c -> c.getChunkIndex())
@@ -45,6 +71,11 @@ public class MasterController {
                                                        .orElse(0) + 1));
 
             return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("status", "error");
+            error.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(error);
         } catch (Exception e) {
             e.printStackTrace();
             Map<String, Object> error = new HashMap<>();
@@ -54,6 +85,36 @@ public class MasterController {
         }
     }
 
+    /**
+     * Endpoint para confirmar un upload cuando el cliente terminó de escribir sus fragmentos
+     */
+    @PostMapping("/commit")
+    public ResponseEntity<Map<String, Object>> commitUpload(@RequestBody Map<String, Object> request) {
+        try {
+            String imagenId = (String) request.get("imagenId");
+
+            FileMetadata metadata = masterService.commitUpload(imagenId);
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("status", "success");
+            response.put("imagenId", metadata.getImagenId());
+            response.put("size", metadata.getSize());
+            response.put("chunks", metadata.getChunks());
+
+            return ResponseEntity.ok(response);
+        } catch (IllegalStateException e) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("status", "error");
+            error.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(error);
+        } catch (RuntimeException e) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("status", "error");
+            error.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(error);
+        }
+    }
+
     /**
      * Endpoint para obtener metadatos de un archivo
      */
@@ -61,13 +122,22 @@ public class MasterController {
     public ResponseEntity<Map<String, Object>> getMetadata(@RequestParam String imagenId) {
         try {
             FileMetadata metadata = masterService.getMetadata(imagenId);
+            accessTracker.recordAccess(imagenId);
 
             Map<String, Object> response = new HashMap<>();
             response.put("status", "success");
             response.put("imagenId", metadata.getImagenId());
             response.put("size", metadata.getSize());
-            response.put("chunks", metadata.getChunks());
+            // Las réplicas que su chunkserver no reporta se excluyen hasta repararse
+            response.put("chunks", metadata.getChunks().stream()
+                                           .filter(c -> !c.isMissing())
+                                           .collect(Collectors.toList()));
             response.put("timestamp", metadata.getTimestamp());
+            if (metadata.isRendezvous()) {
+                response.put("placementMode", metadata.getPlacementMode());
+                response.put("membershipEpoch", metadata.getMembershipEpoch());
+                response.put("numChunks", metadata.getNumChunks());
+            }
 
             return ResponseEntity.ok(response);
         } catch (RuntimeException e) {
@@ -94,40 +164,27 @@ public class MasterController {
             System.out.println("   Total de réplicas: " + metadata.getChunks().size());
             System.out.println();
 
-            int deletedCount = 0;
-            int failedCount = 0;
+            // 2. Eliminar metadatos del Master y liberar referencias de contenido
+            List<FileMetadata.ChunkMetadata> reclaimable = masterService.deleteFile(imagenId);
+            int sharedCount = metadata.getChunks().size() - reclaimable.size();
 
-            // 2. Eliminar cada réplica de cada fragmento
-            for (FileMetadata.ChunkMetadata chunk : metadata.getChunks()) {
-                String chunkserverUrl = chunk.getChunkserverUrl();
-                int chunkIndex = chunk.getChunkIndex();
+            // 3. Eliminar cada réplica física que ya no referencia ningún archivo
+            //    (las que un plan pendiente está reescribiendo se conservan)
+            List<FileMetadata.ChunkMetadata> deleted = masterService.reclaimReplicas(reclaimable);
+            for (FileMetadata.ChunkMetadata chunk : deleted) {
                 int replicaIndex = chunk.getReplicaIndex();
-
-                try {
-                    String deleteUrl = chunkserverUrl + "/api/chunk/delete?imagenId=" +
-                                       imagenId + "&chunkIndex=" + chunkIndex;
-
-                    restTemplate.delete(deleteUrl);
-
-                    String replicaType = replicaIndex == 0 ? "PRIMARIA" : "RÉPLICA " + replicaIndex;
-                    System.out.println("   ✅ [" + replicaType + "] Chunk " + chunkIndex +
-                                       " eliminado de " + chunkserverUrl);
-                    deletedCount++;
-                } catch (Exception e) {
-                    String replicaType = replicaIndex == 0 ? "PRIMARIA" : "RÉPLICA " + replicaIndex;
-                    System.err.println("   ❌ [" + replicaType + "] Error eliminando chunk " +
-                                       chunkIndex + " de " + chunkserverUrl + ": " + e.getMessage());
-                    failedCount++;
-                }
+                String replicaType = replicaIndex == 0 ? "PRIMARIA" : "RÉPLICA " + replicaIndex;
+                System.out.println("   ✅ [" + replicaType + "] Chunk " + chunk.getStorageChunkIndex() +
+                                   " eliminado de " + chunk.getChunkserverUrl());
             }
-
-            // 3. Eliminar metadatos del Master
-            masterService.deleteFile(imagenId);
+            int deletedCount = deleted.size();
+            int failedCount = reclaimable.size() - deletedCount;
 
             System.out.println();
             System.out.println("📊 Resultado de eliminación:");
             System.out.println("   ✅ Réplicas eliminadas: " + deletedCount);
             System.out.println("   ❌ Fallos: " + failedCount);
+            System.out.println("   ♻️  Compartidas (conservadas): " + sharedCount);
             System.out.println();
 
             Map<String, String> response = new HashMap<>();
@@ -135,6 +192,7 @@ public class MasterController {
             response.put("message", "Archivo y réplicas eliminados");
             response.put("replicasDeleted", String.valueOf(deletedCount));
             response.put("replicasFailed", String.valueOf(failedCount));
+            response.put("replicasShared", String.valueOf(sharedCount));
 
             return ResponseEntity.ok(response);
         } catch (Exception e) {
@@ -154,6 +212,47 @@ public class MasterController {
         return ResponseEntity.ok(masterService.listFiles());
     }
 
+    /**
+     * Endpoint para consultar archivos por prefijo/rango de imagenId o por rango de timestamp
+     * sin transferir todo el espacio de nombres (paginado con limit y cursor)
+     */
+    @GetMapping("/files/scan")
+    public ResponseEntity<Map<String, Object>> scanFiles(
+            @RequestParam(defaultValue = "imagenId") String orderBy,
+            @RequestParam(required = false) String prefix,
+            @RequestParam(required = false) String start,
+            @RequestParam(required = false) String end,
+            @RequestParam(required = false) Long from,
+            @RequestParam(required = false) Long to,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "100") int limit) {
+        try {
+            int pageSize = Math.max(1, Math.min(limit, 1000));
+            Map<String, Object> response = new HashMap<>();
+            response.put("status", "success");
+            response.putAll(masterService.scanFiles(orderBy, prefix, start, end, from, to, cursor, pageSize));
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("status", "error");
+            error.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(error);
+        }
+    }
+
+    /**
+     * Endpoint para listar los uploads planificados que aún no se confirmaron
+     */
+    @GetMapping("/uploads/pending")
+    public ResponseEntity<Map<String, Object>> listPendingUploads() {
+        List<Map<String, Object>> pending = masterService.listPendingUploads();
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "success");
+        response.put("count", pending.size());
+        response.put("uploads", pending);
+        return ResponseEntity.ok(response);
+    }
+
     /**
      * Endpoint para obtener estadísticas del sistema
      */
@@ -182,6 +281,8 @@ public class MasterController {
         try {
             String url = request.get("url");
             masterService.registerChunkserver(url);
+            // Llevar fragmentos existentes al nodo nuevo sin esperar al siguiente ciclo
+            rebalancerService.triggerAsync();
 
             Map<String, String> response = new HashMap<>();
             response.put("status", "success");
@@ -210,6 +311,11 @@ public class MasterController {
             response.put("message", "Chunkserver dado de baja");
 
             return ResponseEntity.ok(response);
+        } catch (IllegalStateException e) {
+            Map<String, String> error = new HashMap<>();
+            error.put("status", "error");
+            error.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(error);
         } catch (Exception e) {
             Map<String, String> error = new HashMap<>();
             error.put("status", "error");
@@ -217,4 +323,134 @@ public class MasterController {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(error);
         }
     }
+
+    /**
+     * Endpoint para drenar un chunkserver antes de darlo de baja
+     */
+    @PostMapping("/drain")
+    public ResponseEntity<Map<String, String>> drainChunkserver(@RequestBody Map<String, String> request) {
+        try {
+            String url = request.get("url");
+            masterService.drainChunkserver(url);
+            rebalancerService.triggerAsync();
+
+            Map<String, String> response = new HashMap<>();
+            response.put("status", "success");
+            response.put("message", "Chunkserver en drenaje");
+
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            Map<String, String> error = new HashMap<>();
+            error.put("status", "error");
+            error.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(error);
+        }
+    }
+
+    /**
+     * Endpoint para cancelar el drenaje de un chunkserver
+     */
+    @PostMapping("/drain/cancel")
+    public ResponseEntity<Map<String, String>> cancelDrain(@RequestBody Map<String, String> request) {
+        String url = request.get("url");
+        masterService.cancelDrain(url);
+
+        Map<String, String> response = new HashMap<>();
+        response.put("status", "success");
+        response.put("message", "Drenaje cancelado");
+
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Endpoint para lanzar un ciclo de rebalanceo inmediato
+     */
+    @PostMapping("/rebalance")
+    public ResponseEntity<Map<String, Object>> triggerRebalance() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "success");
+        response.put("started", rebalancerService.triggerAsync());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Endpoint para consultar el progreso del rebalanceo y la utilización por nodo
+     */
+    @GetMapping("/rebalance/status")
+    public ResponseEntity<Map<String, Object>> rebalanceStatus() {
+        return ResponseEntity.ok(rebalancerService.getStatus());
+    }
+
+    /**
+     * Endpoint para consultar las imágenes calientes y su replicación adicional
+     */
+    @GetMapping("/hot")
+    public ResponseEntity<Map<String, Object>> hotStatus() {
+        return ResponseEntity.ok(hotReplicationService.getStatus());
+    }
+
+    /**
+     * Endpoint para obtener la membresía de chunkservers (época vigente o una anterior)
+     * con la que los clientes calculan localmente la ubicación rendezvous de las réplicas
+     */
+    @GetMapping("/membership")
+    public ResponseEntity<Map<String, Object>> membership(@RequestParam(required = false) Long epoch) {
+        try {
+            return ResponseEntity.ok(masterService.getMembership(epoch));
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("status", "error");
+            error.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(error);
+        }
+    }
+
+    /**
+     * Endpoint para recibir el inventario de fragmentos de un chunkserver
+     * Reporte completo: {"url", "full": true, "sequence", "chunks": ["imagenId#chunkIndex", ...]}
+     * Reporte incremental: {"url", "full": false, "sequence", "added": [...], "removed": [...]}
+     */
+    @PostMapping("/inventory")
+    @SuppressWarnings("unchecked")
+    public ResponseEntity<Map<String, Object>> reportInventory(@RequestBody Map<String, Object> request) {
+        try {
+            String url = (String) request.get("url");
+            boolean full = Boolean.TRUE.equals(request.get("full"));
+            Number sequence = (Number) request.get("sequence");
+
+            boolean applied = inventoryService.applyReport(url, full, sequence != null ? sequence.longValue() : 0,
+                                                           (List<String>) request.get("chunks"),
+                                                           (List<String>) request.get("added"),
+                                                           (List<String>) request.get("removed"));
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("status", "success");
+            response.put("resyncRequired", !applied);
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("status", "error");
+            error.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(error);
+        }
+    }
+
+    /**
+     * Endpoint para lanzar una reconciliación de integridad inmediata
+     */
+    @PostMapping("/reconcile")
+    public ResponseEntity<Map<String, Object>> triggerReconcile() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "success");
+        response.put("started", reconcilerService.triggerAsync());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Endpoint para consultar huérfanos, réplicas faltantes y reparaciones
+     */
+    @GetMapping("/reconcile/status")
+    public ResponseEntity<Map<String, Object>> reconcileStatus() {
+        return ResponseEntity.ok(reconcilerService.getStatus());
+    }
 }
\ No newline at end of file
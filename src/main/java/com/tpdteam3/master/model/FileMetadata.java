@@ -1,14 +1,27 @@
 package com.tpdteam3.master.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.util.ArrayList;
 import java.util.List;
 
 public class FileMetadata {
+    public static final String PLACEMENT_RENDEZVOUS = "RENDEZVOUS";
+
     private String imagenId;
     private long size;
     private List<ChunkMetadata> chunks;
     private long timestamp;
 
+    // Ubicación determinista (rendezvous): el layout es (imagenId, numChunks, membershipEpoch)
+    // y solo se persisten las réplicas que difieren del resultado del hash
+    private String placementMode; // null = round-robin (ubicación explícita por réplica)
+    private Long membershipEpoch;
+    private Integer numChunks;
+    private List<String> contentHashes; // hash de contenido por fragmento (solo rendezvous)
+    private List<ChunkMetadata> placementOverrides;
+
     public FileMetadata() {
         this.chunks = new ArrayList<>();
         this.timestamp = System.currentTimeMillis();
@@ -37,6 +50,9 @@ public class FileMetadata {
         this.size = size;
     }
 
+    /**
+     * Réplicas completas del archivo (en rendezvous se materializan en memoria, no se persisten)
+     */
     public List<ChunkMetadata> getChunks() {
         return chunks;
     }
@@ -45,6 +61,71 @@ public class FileMetadata {
         this.chunks = chunks;
     }
 
+    /**
+     * Réplicas tal como se guardan en disco: en rendezvous no se guardan (se usan los overrides)
+     * Solo lo usa la persistencia, las respuestas de la API siempre llevan "chunks" completo
+     */
+    @JsonIgnore
+    public List<ChunkMetadata> getStoredChunks() {
+        return isRendezvous() ? null : chunks;
+    }
+
+    @JsonIgnore
+    public void setStoredChunks(List<ChunkMetadata> chunks) {
+        this.chunks = chunks;
+    }
+
+    @JsonIgnore
+    public boolean isRendezvous() {
+        return PLACEMENT_RENDEZVOUS.equals(placementMode);
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String getPlacementMode() {
+        return placementMode;
+    }
+
+    public void setPlacementMode(String placementMode) {
+        this.placementMode = placementMode;
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Long getMembershipEpoch() {
+        return membershipEpoch;
+    }
+
+    public void setMembershipEpoch(Long membershipEpoch) {
+        this.membershipEpoch = membershipEpoch;
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Integer getNumChunks() {
+        return numChunks;
+    }
+
+    public void setNumChunks(Integer numChunks) {
+        this.numChunks = numChunks;
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public List<String> getContentHashes() {
+        return contentHashes;
+    }
+
+    public void setContentHashes(List<String> contentHashes) {
+        this.contentHashes = contentHashes;
+    }
+
+    @JsonIgnore
+    public List<ChunkMetadata> getPlacementOverrides() {
+        return placementOverrides;
+    }
+
+    @JsonIgnore
+    public void setPlacementOverrides(List<ChunkMetadata> placementOverrides) {
+        this.placementOverrides = placementOverrides;
+    }
+
     public long getTimestamp() {
         return timestamp;
     }
@@ -61,6 +142,12 @@ public class FileMetadata {
         private String chunkserverId;
         private String chunkserverUrl;
         private int replicaIndex; // 0 = primaria, 1+ = réplicas
+        private String contentHash; // Hash del contenido enviado por el cliente (opcional)
+        private boolean deduplicated; // true = el contenido ya estaba almacenado, no hay que escribirlo
+        private String storageImagenId; // imagenId bajo el cual el chunkserver guarda físicamente el fragmento
+        private Integer storageChunkIndex; // chunkIndex bajo el cual el chunkserver guarda físicamente el fragmento
+        private boolean missing; // true = el chunkserver no lo reporta en su inventario (excluida de lecturas)
+        private boolean hot; // true = réplica adicional por imagen caliente (se elimina al enfriarse)
 
         public ChunkMetadata() {
         }
@@ -72,6 +159,19 @@ public class FileMetadata {
             this.replicaIndex = 0; // Por defecto es primaria
         }
 
+        public ChunkMetadata(ChunkMetadata other) {
+            this.chunkIndex = other.chunkIndex;
+            this.chunkserverId = other.chunkserverId;
+            this.chunkserverUrl = other.chunkserverUrl;
+            this.replicaIndex = other.replicaIndex;
+            this.contentHash = other.contentHash;
+            this.deduplicated = other.deduplicated;
+            this.storageImagenId = other.storageImagenId;
+            this.storageChunkIndex = other.storageChunkIndex;
+            this.missing = other.missing;
+            this.hot = other.hot;
+        }
+
         public int getChunkIndex() {
             return chunkIndex;
         }
@@ -104,12 +204,70 @@ public class FileMetadata {
             this.replicaIndex = replicaIndex;
         }
 
+        public String getContentHash() {
+            return contentHash;
+        }
+
+        public void setContentHash(String contentHash) {
+            this.contentHash = contentHash;
+        }
+
+        public boolean isDeduplicated() {
+            return deduplicated;
+        }
+
+        public void setDeduplicated(boolean deduplicated) {
+            this.deduplicated = deduplicated;
+        }
+
+        public String getStorageImagenId() {
+            return storageImagenId;
+        }
+
+        public void setStorageImagenId(String storageImagenId) {
+            this.storageImagenId = storageImagenId;
+        }
+
+        public Integer getStorageChunkIndex() {
+            return storageChunkIndex;
+        }
+
+        public void setStorageChunkIndex(Integer storageChunkIndex) {
+            this.storageChunkIndex = storageChunkIndex;
+        }
+
+        public boolean isMissing() {
+            return missing;
+        }
+
+        public void setMissing(boolean missing) {
+            this.missing = missing;
+        }
+
+        public boolean isHot() {
+            return hot;
+        }
+
+        public void setHot(boolean hot) {
+            this.hot = hot;
+        }
+
+        /**
+         * Clave física del fragmento en el chunkserver (imagenId#chunkIndex)
+         */
+        public String storageKey() {
+            return storageImagenId + "#" + storageChunkIndex;
+        }
+
         @Override
         public String toString() {
             return "ChunkMetadata{" +
                    "chunkIndex=" + chunkIndex +
                    ", replicaIndex=" + replicaIndex +
                    ", chunkserverUrl='" + chunkserverUrl + '\'' +
+                   (deduplicated ? ", storage=" + storageKey() : "") +
+                   (missing ? ", missing" : "") +
+                   (hot ? ", hot" : "") +
                    '}';
         }
     }
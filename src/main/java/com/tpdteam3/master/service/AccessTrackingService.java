@@ -0,0 +1,109 @@
+package com.tpdteam3.master.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Frecuencia de acceso por imagenId con memoria acotada (count-min sketch con decaimiento)
+ * Cada intervalo de decaimiento los contadores se dividen a la mitad, de modo que la
+ * estimación refleja la demanda reciente y los archivos que dejan de leerse se enfrían
+ */
+@Service
+public class AccessTrackingService {
+
+    // Cada fila usa 16 bits distintos de un hash de 64 bits: WIDTH debe ser potencia de 2 ≤ 2^16
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 4096;
+
+    private final AtomicLongArray[] counters = new AtomicLongArray[DEPTH];
+    private final AtomicLong totalAccesses = new AtomicLong();
+
+    // Candidatos a archivo "caliente": los que superaron el umbral al ser leídos
+    private final Set<String> candidates = ConcurrentHashMap.newKeySet();
+
+    @Value("${master.hot.promote-threshold:100}")
+    private long promoteThreshold;
+
+    @Value("${master.hot.max-candidates:1000}")
+    private int maxCandidates;
+
+    public AccessTrackingService() {
+        for (int row = 0; row < DEPTH; row++) {
+            counters[row] = new AtomicLongArray(WIDTH);
+        }
+    }
+
+    /**
+     * Registra una lectura de metadatos
+     */
+    public void recordAccess(String imagenId) {
+        long hash = Hashing.hash64(imagenId);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, counters[row].incrementAndGet(cell(row, hash)));
+        }
+        totalAccesses.incrementAndGet();
+
+        if (estimate >= promoteThreshold && candidates.size() < maxCandidates) {
+            candidates.add(imagenId);
+        }
+    }
+
+    /**
+     * Frecuencia estimada (con decaimiento) de un imagenId; nunca subestima
+     */
+    public long estimate(String imagenId) {
+        long hash = Hashing.hash64(imagenId);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, counters[row].get(cell(row, hash)));
+        }
+        return estimate;
+    }
+
+    /**
+     * Divide todos los contadores a la mitad
+     */
+    @Scheduled(fixedDelayString = "${master.hot.decay-interval-ms:60000}")
+    public void decay() {
+        for (AtomicLongArray row : counters) {
+            for (int i = 0; i < WIDTH; i++) {
+                row.getAndUpdate(i, value -> value >> 1);
+            }
+        }
+    }
+
+    public Set<String> getCandidates() {
+        return candidates;
+    }
+
+    public void removeCandidate(String imagenId) {
+        candidates.remove(imagenId);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("totalAccesses", totalAccesses.get());
+        stats.put("candidates", candidates.size());
+        stats.put("sketchDepth", DEPTH);
+        stats.put("sketchWidth", WIDTH);
+        stats.put("promoteThreshold", promoteThreshold);
+        return stats;
+    }
+
+    /**
+     * Cada fila usa 16 bits distintos de un hash de 64 bits (no String.hashCode(): dos ids
+     * que colisionan en 32 bits compartirían celda en todas las filas)
+     */
+    private int cell(int row, long hash) {
+        return (int) (hash >>> (16 * row)) & (WIDTH - 1);
+    }
+}
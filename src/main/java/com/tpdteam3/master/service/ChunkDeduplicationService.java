@@ -0,0 +1,283 @@
+package com.tpdteam3.master.service;
+
+import com.tpdteam3.master.model.FileMetadata;
+import com.tpdteam3.master.model.FileMetadata.ChunkMetadata;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * Índice de contenido para deduplicar fragmentos al planificar uploads
+ * Mantiene hash → fragmento físico ya almacenado, con conteo de referencias:
+ * un fragmento físico solo se reclama cuando ningún archivo lo referencia
+ */
+@Service
+public class ChunkDeduplicationService {
+
+    // hash de contenido → fragmento físico que reutilizan los nuevos uploads
+    private final Map<String, DedupEntry> entriesByHash = new HashMap<>();
+
+    // clave física (imagenId#chunkIndex) → fragmento indexado con sus referencias
+    private final Map<String, DedupEntry> entriesByStorageKey = new HashMap<>();
+
+    /**
+     * Reconstruye el índice a partir de los metadatos cargados desde disco
+     *
+     * Se indexan primero las claves físicas a las que apunta algún fragmento deduplicado
+     * (son las que otros archivos leen); para el resto del contenido se elige la menor
+     * clave física, de modo que el resultado no depende del orden de iteración.
+     * Las referencias se cuentan por clave física
+     */
+    public synchronized void rebuild(Collection<FileMetadata> files) {
+        entriesByHash.clear();
+        entriesByStorageKey.clear();
+
+        // 1. Claves físicas compartidas (apuntadas por fragmentos que no las almacenan)
+        SortedMap<String, DedupEntry> shared = new TreeMap<>();
+        // hash → menor clave física que lo almacena
+        Map<String, ChunkMetadata> candidates = new HashMap<>();
+
+        for (FileMetadata metadata : files) {
+            for (ChunkMetadata chunk : primaryReplicas(metadata)) {
+                String hash = chunk.getContentHash();
+                if (hash == null) {
+                    continue;
+                }
+                boolean pointsElsewhere = !metadata.getImagenId().equals(chunk.getStorageImagenId())
+                                          || chunk.getChunkIndex() != chunk.getStorageChunkIndex();
+                if (pointsElsewhere) {
+                    shared.computeIfAbsent(chunk.storageKey(), key ->
+                            new DedupEntry(hash, chunk.getStorageImagenId(), chunk.getStorageChunkIndex()));
+                } else {
+                    candidates.merge(hash, chunk, (a, b) -> a.storageKey().compareTo(b.storageKey()) <= 0 ? a : b);
+                }
+            }
+        }
+
+        for (DedupEntry entry : shared.values()) {
+            entriesByStorageKey.put(entry.storageKey(), entry);
+            entriesByHash.putIfAbsent(entry.getHash(), entry);
+        }
+
+        // 2. Contenido no compartido: una clave física canónica por hash
+        for (Map.Entry<String, ChunkMetadata> candidate : candidates.entrySet()) {
+            if (entriesByHash.containsKey(candidate.getKey())) {
+                continue;
+            }
+            ChunkMetadata chunk = candidate.getValue();
+            DedupEntry entry = new DedupEntry(candidate.getKey(), chunk.getStorageImagenId(), chunk.getStorageChunkIndex());
+            entriesByStorageKey.put(entry.storageKey(), entry);
+            entriesByHash.put(entry.getHash(), entry);
+        }
+
+        // 3. Referencias: cada fragmento lógico cuenta sobre la clave física que lee
+        for (FileMetadata metadata : files) {
+            for (ChunkMetadata chunk : primaryReplicas(metadata)) {
+                DedupEntry entry = entriesByStorageKey.get(chunk.storageKey());
+                if (entry != null && chunk.getContentHash() != null) {
+                    entry.addReference(metadata.getImagenId());
+                }
+            }
+        }
+
+        System.out.println("🧬 Índice de deduplicación reconstruido: " + entriesByHash.size() + " fragmentos únicos");
+    }
+
+    /**
+     * Busca un fragmento ya almacenado con el mismo contenido
+     *
+     * @return la entrada existente o null si el contenido es nuevo
+     */
+    public synchronized DedupEntry lookup(String hash) {
+        return entriesByHash.get(hash);
+    }
+
+    /**
+     * Entrada indexada de una clave física, o null si la clave no está indexada
+     */
+    public synchronized DedupEntry entryFor(String storageKey) {
+        return entriesByStorageKey.get(storageKey);
+    }
+
+    /**
+     * Suma una referencia de imagenId a un fragmento ya almacenado
+     */
+    public synchronized void addReference(DedupEntry entry, String imagenId) {
+        entry.addReference(imagenId);
+    }
+
+    /**
+     * Quita una referencia de imagenId a un fragmento ya almacenado
+     *
+     * @return true si el fragmento quedó sin referencias y puede reclamarse
+     */
+    public synchronized boolean removeReference(DedupEntry entry, String imagenId) {
+        entry.removeReference(imagenId);
+        if (entry.getRefCount() == 0 && entriesByStorageKey.get(entry.storageKey()) == entry) {
+            forget(entry);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Registra un fragmento nuevo, almacenado bajo (imagenId, chunkIndex), con una referencia
+     */
+    public synchronized void register(String hash, String imagenId, int chunkIndex) {
+        if (entriesByHash.containsKey(hash)) {
+            // Otro upload registró el mismo contenido antes: este fragmento queda fuera del índice
+            return;
+        }
+        DedupEntry entry = new DedupEntry(hash, imagenId, chunkIndex);
+        entry.addReference(imagenId);
+        entriesByHash.put(hash, entry);
+        entriesByStorageKey.put(entry.storageKey(), entry);
+    }
+
+    /**
+     * Libera todas las referencias de un archivo
+     *
+     * @return claves físicas indexadas que quedaron sin referencias y pueden reclamarse
+     */
+    public synchronized Set<String> release(FileMetadata metadata) {
+        Set<String> reclaimable = new HashSet<>();
+
+        for (ChunkMetadata chunk : primaryReplicas(metadata)) {
+            DedupEntry entry = entriesByStorageKey.get(chunk.storageKey());
+            if (entry == null || chunk.getContentHash() == null) {
+                continue;
+            }
+            entry.removeReference(metadata.getImagenId());
+            if (entry.getRefCount() == 0) {
+                forget(entry);
+                reclaimable.add(entry.storageKey());
+            }
+        }
+
+        return reclaimable;
+    }
+
+    /**
+     * Indica si la clave física está indexada (y por tanto su vida depende del conteo de referencias)
+     */
+    public synchronized boolean isIndexed(String storageKey) {
+        return entriesByStorageKey.containsKey(storageKey);
+    }
+
+    /**
+     * Indica si algún archivo distinto de imagenId referencia fragmentos almacenados bajo imagenId
+     */
+    public synchronized boolean isStorageSharedWithOthers(String imagenId) {
+        for (DedupEntry entry : entriesByStorageKey.values()) {
+            if (entry.getStorageImagenId().equals(imagenId) && entry.hasReferencesOtherThan(imagenId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Archivos que referencian la clave física indicada
+     */
+    public synchronized Set<String> referrers(String storageKey) {
+        DedupEntry entry = entriesByStorageKey.get(storageKey);
+        if (entry == null) {
+            return Collections.emptySet();
+        }
+        return new HashSet<>(entry.references.keySet());
+    }
+
+    /**
+     * Estadísticas del índice de deduplicación
+     */
+    public synchronized Map<String, Object> getStats() {
+        long totalReferences = 0;
+        for (DedupEntry entry : entriesByStorageKey.values()) {
+            totalReferences += entry.getRefCount();
+        }
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("uniqueChunks", entriesByStorageKey.size());
+        stats.put("totalReferences", totalReferences);
+        stats.put("chunksSaved", totalReferences - entriesByStorageKey.size());
+        return stats;
+    }
+
+    private void forget(DedupEntry entry) {
+        entriesByStorageKey.remove(entry.storageKey());
+        if (entriesByHash.get(entry.getHash()) == entry) {
+            entriesByHash.remove(entry.getHash());
+            // Otra copia indexada del mismo contenido pasa a ser la reutilizable
+            entriesByStorageKey.values().stream()
+                               .filter(other -> other.getHash().equals(entry.getHash()))
+                               .min(Comparator.comparing(DedupEntry::storageKey))
+                               .ifPresent(other -> entriesByHash.put(other.getHash(), other));
+        }
+    }
+
+    /**
+     * Una referencia por fragmento lógico: solo se cuenta la réplica primaria
+     */
+    private List<ChunkMetadata> primaryReplicas(FileMetadata metadata) {
+        List<ChunkMetadata> primaries = new ArrayList<>();
+        Set<Integer> seen = new HashSet<>();
+        for (ChunkMetadata chunk : metadata.getChunks()) {
+            if (seen.add(chunk.getChunkIndex())) {
+                primaries.add(chunk);
+            }
+        }
+        return primaries;
+    }
+
+    /**
+     * Fragmento físico único con sus referencias por archivo
+     */
+    public static class DedupEntry {
+        private final String hash;
+        private final String storageImagenId;
+        private final int storageChunkIndex;
+        private final Map<String, Integer> references = new HashMap<>(); // imagenId → nº de fragmentos que lo usan
+
+        DedupEntry(String hash, String storageImagenId, int storageChunkIndex) {
+            this.hash = hash;
+            this.storageImagenId = storageImagenId;
+            this.storageChunkIndex = storageChunkIndex;
+        }
+
+        void addReference(String imagenId) {
+            references.merge(imagenId, 1, Integer::sum);
+        }
+
+        void removeReference(String imagenId) {
+            references.computeIfPresent(imagenId, (id, count) -> count > 1 ? count - 1 : null);
+        }
+
+        boolean hasReferencesOtherThan(String imagenId) {
+            return references.size() > (references.containsKey(imagenId) ? 1 : 0);
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public String getStorageImagenId() {
+            return storageImagenId;
+        }
+
+        public int getStorageChunkIndex() {
+            return storageChunkIndex;
+        }
+
+        public int getRefCount() {
+            int total = 0;
+            for (int count : references.values()) {
+                total += count;
+            }
+            return total;
+        }
+
+        public String storageKey() {
+            return storageImagenId + "#" + storageChunkIndex;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.tpdteam3.master.service;
+
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Inventarios de fragmentos reportados por los chunkservers
+ * Cada chunkserver envía periódicamente una lista ordenada de claves "imagenId#chunkIndex":
+ * primero un reporte completo y luego solo los cambios (agregados y eliminados) numerados
+ * en secuencia. Si se pierde un reporte incremental se pide un reporte completo
+ */
+@Service
+public class ChunkInventoryService {
+
+    private final Map<String, ServerInventory> inventories = new ConcurrentHashMap<>();
+
+    /**
+     * Aplica un reporte de inventario
+     *
+     * @return false si el reporte incremental no encadena con el anterior y se requiere uno completo
+     */
+    public boolean applyReport(String url, boolean full, long sequence,
+                               Collection<String> chunks, Collection<String> added, Collection<String> removed) {
+        ServerInventory inventory = inventories.computeIfAbsent(url, ServerInventory::new);
+
+        synchronized (inventory) {
+            if (full) {
+                inventory.chunks.clear();
+                if (chunks != null) {
+                    inventory.chunks.addAll(chunks);
+                }
+                inventory.complete = true;
+                inventory.lastFullReport = System.currentTimeMillis();
+            } else {
+                if (!inventory.complete || sequence != inventory.lastSequence + 1) {
+                    inventory.complete = false;
+                    return false;
+                }
+                if (added != null) {
+                    inventory.chunks.addAll(added);
+                }
+                if (removed != null) {
+                    inventory.chunks.removeAll(removed);
+                }
+            }
+            inventory.lastSequence = sequence;
+            inventory.lastReport = System.currentTimeMillis();
+            return true;
+        }
+    }
+
+    /**
+     * Registra que el Master borró un fragmento de un chunkserver (sin esperar al siguiente reporte)
+     */
+    public void recordDeletion(String url, String storageKey) {
+        ServerInventory inventory = inventories.get(url);
+        if (inventory != null) {
+            inventory.chunks.remove(storageKey);
+        }
+    }
+
+    /**
+     * Registra que el Master escribió un fragmento en un chunkserver (sin esperar al siguiente reporte)
+     */
+    public void recordWrite(String url, String storageKey) {
+        ServerInventory inventory = inventories.get(url);
+        if (inventory != null) {
+            inventory.chunks.add(storageKey);
+        }
+    }
+
+    /**
+     * Inventario completo y reciente de un chunkserver, o null si no es confiable
+     */
+    public InventorySnapshot getReliableInventory(String url, long maxAgeMs) {
+        ServerInventory inventory = inventories.get(url);
+        if (inventory == null) {
+            return null;
+        }
+        synchronized (inventory) {
+            if (!inventory.complete || System.currentTimeMillis() - inventory.lastReport > maxAgeMs) {
+                return null;
+            }
+            return new InventorySnapshot(new HashSet<>(inventory.chunks), inventory.lastReport);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        List<Map<String, Object>> servers = new ArrayList<>();
+        for (ServerInventory inventory : inventories.values()) {
+            Map<String, Object> server = new HashMap<>();
+            server.put("url", inventory.url);
+            server.put("chunks", inventory.chunks.size());
+            server.put("complete", inventory.complete);
+            server.put("lastSequence", inventory.lastSequence);
+            server.put("lastReport", inventory.lastReport);
+            server.put("lastFullReport", inventory.lastFullReport);
+            servers.add(server);
+        }
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("servers", servers);
+        return stats;
+    }
+
+    /**
+     * Copia de un inventario junto con el momento del último reporte que lo actualizó
+     */
+    static class InventorySnapshot {
+        final Set<String> chunks;
+        final long reportedAt;
+
+        InventorySnapshot(Set<String> chunks, long reportedAt) {
+            this.chunks = chunks;
+            this.reportedAt = reportedAt;
+        }
+    }
+
+    /**
+     * Inventario de un chunkserver (claves ordenadas)
+     */
+    static class ServerInventory {
+        final String url;
+        final ConcurrentSkipListSet<String> chunks = new ConcurrentSkipListSet<>();
+        volatile boolean complete;
+        volatile long lastSequence;
+        volatile long lastReport;
+        volatile long lastFullReport;
+
+        ServerInventory(String url) {
+            this.url = url;
+        }
+    }
+}
@@ -0,0 +1,405 @@
+package com.tpdteam3.master.service;
+
+import com.tpdteam3.master.model.FileMetadata;
+import com.tpdteam3.master.model.FileMetadata.ChunkMetadata;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rebalanceador de fragmentos entre chunkservers
+ * Calcula la utilización por nodo, planifica movimientos hacia el promedio y los ejecuta
+ * con throttling: copiar → cambiar metadatos → borrar origen.
+ * También vacía los chunkservers marcados para drenaje antes de darlos de baja
+ */
+@Service
+public class ChunkRebalancerService {
+
+    @Autowired
+    private MasterService masterService;
+
+    @Autowired
+    private ChunkserverClient chunkserverClient;
+
+    @Autowired
+    private ChunkInventoryService inventoryService;
+
+    @Value("${master.rebalancer.enabled:true}")
+    private boolean enabled;
+
+    // Desviación tolerada respecto al promedio antes de mover fragmentos (0.10 = 10%)
+    @Value("${master.rebalancer.tolerance:0.10}")
+    private double tolerance;
+
+    @Value("${master.rebalancer.max-moves-per-cycle:50}")
+    private int maxMovesPerCycle;
+
+    // Pausa entre movimientos para no saturar a los chunkservers
+    @Value("${master.rebalancer.throttle-ms:200}")
+    private long throttleMs;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicLong movesCompleted = new AtomicLong();
+    private final AtomicLong movesFailed = new AtomicLong();
+    private final AtomicLong bytesMoved = new AtomicLong();
+
+    private volatile long lastRunStarted;
+    private volatile long lastRunFinished;
+    private volatile int lastPlannedMoves;
+    private volatile String currentMove;
+    private volatile String lastError;
+
+    /**
+     * Ciclo periódico de rebalanceo
+     */
+    @Scheduled(initialDelayString = "${master.rebalancer.initial-delay-ms:60000}",
+               fixedDelayString = "${master.rebalancer.interval-ms:60000}")
+    public void scheduledRebalance() {
+        if (enabled) {
+            runCycle();
+        }
+    }
+
+    /**
+     * Lanza un ciclo de rebalanceo en segundo plano
+     *
+     * @return false si ya hay un ciclo en ejecución
+     */
+    public boolean triggerAsync() {
+        if (running.get()) {
+            return false;
+        }
+        CompletableFuture.runAsync(this::runCycle);
+        return true;
+    }
+
+    /**
+     * Ejecuta un ciclo completo: planificar y aplicar movimientos
+     */
+    public void runCycle() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        lastRunStarted = System.currentTimeMillis();
+        try {
+            List<Move> moves = planMoves();
+            lastPlannedMoves = moves.size();
+            if (moves.isEmpty()) {
+                return;
+            }
+
+            System.out.println("╔════════════════════════════════════════════════════════╗");
+            System.out.println("║  ⚖️  REBALANCEANDO FRAGMENTOS                          ║");
+            System.out.println("╚════════════════════════════════════════════════════════╝");
+            System.out.println("   Movimientos planificados: " + moves.size());
+
+            for (Move move : moves) {
+                executeMove(move);
+                if (throttleMs > 0) {
+                    Thread.sleep(throttleMs);
+                }
+            }
+
+            System.out.println("✅ Ciclo de rebalanceo completado");
+            System.out.println();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            lastError = e.getMessage();
+            System.err.println("❌ Error en ciclo de rebalanceo: " + e.getMessage());
+        } finally {
+            currentMove = null;
+            lastRunFinished = System.currentTimeMillis();
+            running.set(false);
+        }
+    }
+
+    /**
+     * Planifica movimientos: primero vaciar nodos en drenaje, luego llevar
+     * los nodos sobrecargados hacia el promedio de los nodos activos
+     */
+    List<Move> planMoves() {
+        List<String> active = masterService.getActiveChunkservers();
+        if (active.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Map<String, NodeLoad> loads = computeLoads();
+        for (String url : masterService.getChunkservers()) {
+            loads.computeIfAbsent(url, NodeLoad::new);
+        }
+
+        long activeBytes = 0;
+        for (String url : active) {
+            activeBytes += loads.get(url).bytes;
+        }
+        long drainingBytes = 0;
+        for (String url : masterService.getDrainingChunkservers()) {
+            NodeLoad load = loads.get(url);
+            if (load != null) {
+                drainingBytes += load.bytes;
+            }
+        }
+        double target = (double) (activeBytes + drainingBytes) / active.size();
+        double upperBound = target * (1 + tolerance);
+
+        List<Move> moves = new ArrayList<>();
+        while (moves.size() < maxMovesPerCycle) {
+            NodeLoad source = pickSource(loads, upperBound);
+            if (source == null) {
+                break;
+            }
+
+            Move move = null;
+            for (Replica replica : source.replicas.values()) {
+                NodeLoad destination = pickDestination(loads, active, replica.storageKey);
+                if (destination == null) {
+                    continue;
+                }
+                // No mover si solo invierte el desequilibrio (salvo drenaje)
+                if (!masterService.isDraining(source.url) &&
+                    destination.bytes + replica.bytes > source.bytes - replica.bytes) {
+                    continue;
+                }
+                move = new Move(replica, source.url, destination.url);
+                break;
+            }
+            if (move == null) {
+                break;
+            }
+
+            moves.add(move);
+            source.remove(move.replica);
+            loads.get(move.targetUrl).add(move.replica);
+        }
+        return moves;
+    }
+
+    private NodeLoad pickSource(Map<String, NodeLoad> loads, double upperBound) {
+        for (String url : masterService.getDrainingChunkservers()) {
+            NodeLoad load = loads.get(url);
+            if (load != null && !load.replicas.isEmpty()) {
+                return load;
+            }
+        }
+
+        NodeLoad heaviest = null;
+        for (String url : masterService.getActiveChunkservers()) {
+            NodeLoad load = loads.get(url);
+            if (heaviest == null || load.bytes > heaviest.bytes) {
+                heaviest = load;
+            }
+        }
+        return heaviest != null && heaviest.bytes > upperBound ? heaviest : null;
+    }
+
+    private NodeLoad pickDestination(Map<String, NodeLoad> loads, List<String> active, String storageKey) {
+        NodeLoad lightest = null;
+        for (String url : active) {
+            NodeLoad load = loads.get(url);
+            if (load.replicas.containsKey(storageKey)) {
+                continue; // Dos réplicas del mismo fragmento nunca en el mismo nodo
+            }
+            if (lightest == null || load.bytes < lightest.bytes) {
+                lightest = load;
+            }
+        }
+        return lightest;
+    }
+
+    /**
+     * Utilización por chunkserver a partir de los metadatos: una réplica física por clave
+     */
+    private Map<String, NodeLoad> computeLoads() {
+        Map<String, NodeLoad> loads = new HashMap<>();
+        for (FileMetadata metadata : masterService.listFiles()) {
+            for (ChunkMetadata chunk : metadata.getChunks()) {
+                NodeLoad load = loads.computeIfAbsent(chunk.getChunkserverUrl(), NodeLoad::new);
+                if (!load.replicas.containsKey(chunk.storageKey())) {
+                    load.add(new Replica(chunk.getStorageImagenId(), chunk.getStorageChunkIndex(),
+                                         masterService.chunkSizeBytes(metadata, chunk.getChunkIndex())));
+                }
+            }
+        }
+        return loads;
+    }
+
+    /**
+     * Copia el fragmento al destino, cambia los metadatos y borra el origen
+     */
+    private void executeMove(Move move) {
+        Replica replica = move.replica;
+        currentMove = replica.storageKey + ": " + move.sourceUrl + " → " + move.targetUrl;
+
+        try {
+            // El destino pudo recibir la clave (p. ej. una réplica caliente) después de planificar
+            // (o un plan pendiente la está escribiendo: la copia pisaría lo que escribe el cliente)
+            if (masterService.holdsReplica(replica.storageImagenId, replica.storageChunkIndex, move.targetUrl)
+                || masterService.getPendingReplicaKeys().contains(replica.storageKey + "@" + move.targetUrl)) {
+                System.out.println("   ⏭️ " + currentMove + ": el destino ya tiene la réplica");
+                return;
+            }
+
+            // 1. Copiar (desde el origen o, si no responde, desde otra réplica)
+            int copied = copyFromAnyReplica(move);
+            inventoryService.recordWrite(move.targetUrl, replica.storageKey);
+
+            // 2. Cambiar metadatos
+            int updated;
+            try {
+                updated = masterService.relocateReplica(replica.storageImagenId, replica.storageChunkIndex,
+                                                        move.sourceUrl, move.targetUrl);
+            } catch (IllegalStateException e) {
+                // Otra réplica llegó al destino durante la copia: la copia escribió sobre ella
+                // (mismo contenido), así que no se borra; el origen se conserva
+                System.out.println("   ⏭️ " + currentMove + ": " + e.getMessage());
+                return;
+            }
+            if (updated == 0) {
+                // El archivo fue eliminado mientras se copiaba: descartar la copia
+                masterService.reclaimReplica(replica.storageImagenId, replica.storageChunkIndex, move.targetUrl);
+                return;
+            }
+
+            // 3. Borrar origen (salvo que un plan pendiente esté escribiendo la misma clave ahí)
+            if (!masterService.reclaimReplica(replica.storageImagenId, replica.storageChunkIndex, move.sourceUrl)) {
+                System.err.println("   ⚠️ No se borró el origen " + move.sourceUrl + " (en uso o sin respuesta)");
+            }
+
+            movesCompleted.incrementAndGet();
+            bytesMoved.addAndGet(copied);
+            System.out.println("   ✅ " + currentMove);
+        } catch (Exception e) {
+            movesFailed.incrementAndGet();
+            lastError = currentMove + ": " + e.getMessage();
+            System.err.println("   ❌ " + currentMove + ": " + e.getMessage());
+        }
+    }
+
+    private int copyFromAnyReplica(Move move) {
+        Replica replica = move.replica;
+        List<String> sources = new ArrayList<>();
+        sources.add(move.sourceUrl);
+        for (FileMetadata metadata : masterService.listFiles()) {
+            for (ChunkMetadata chunk : metadata.getChunks()) {
+                if (replica.storageKey.equals(chunk.storageKey()) && !sources.contains(chunk.getChunkserverUrl())
+                    && !move.targetUrl.equals(chunk.getChunkserverUrl())) {
+                    sources.add(chunk.getChunkserverUrl());
+                }
+            }
+            if (sources.size() > 1) {
+                break;
+            }
+        }
+
+        RuntimeException lastFailure = null;
+        for (String sourceUrl : sources) {
+            try {
+                return chunkserverClient.copyChunk(sourceUrl, move.targetUrl,
+                                                   replica.storageImagenId, replica.storageChunkIndex);
+            } catch (RuntimeException e) {
+                lastFailure = e;
+            }
+        }
+        throw lastFailure;
+    }
+
+    /**
+     * Estado del rebalanceador para el endpoint de administración
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("enabled", enabled);
+        status.put("running", running.get());
+        status.put("currentMove", currentMove);
+        status.put("lastRunStarted", lastRunStarted);
+        status.put("lastRunFinished", lastRunFinished);
+        status.put("lastPlannedMoves", lastPlannedMoves);
+        status.put("movesCompleted", movesCompleted.get());
+        status.put("movesFailed", movesFailed.get());
+        status.put("bytesMoved", bytesMoved.get());
+        status.put("lastError", lastError);
+        status.put("tolerance", tolerance);
+        status.put("maxMovesPerCycle", maxMovesPerCycle);
+        status.put("throttleMs", throttleMs);
+
+        Map<String, NodeLoad> loads = computeLoads();
+        List<Map<String, Object>> nodes = new ArrayList<>();
+        for (String url : masterService.getChunkservers()) {
+            NodeLoad load = loads.getOrDefault(url, new NodeLoad(url));
+            Map<String, Object> node = new HashMap<>();
+            node.put("url", url);
+            node.put("replicas", load.replicas.size());
+            node.put("bytes", load.bytes);
+            node.put("draining", masterService.isDraining(url));
+            node.put("drained", masterService.isDraining(url) && load.replicas.isEmpty());
+            nodes.add(node);
+        }
+        status.put("nodes", nodes);
+
+        return status;
+    }
+
+    /**
+     * Réplica física de un fragmento
+     */
+    static class Replica {
+        final String storageImagenId;
+        final int storageChunkIndex;
+        final String storageKey;
+        final long bytes;
+
+        Replica(String storageImagenId, int storageChunkIndex, long bytes) {
+            this.storageImagenId = storageImagenId;
+            this.storageChunkIndex = storageChunkIndex;
+            this.storageKey = storageImagenId + "#" + storageChunkIndex;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Utilización de un chunkserver
+     */
+    static class NodeLoad {
+        final String url;
+        final Map<String, Replica> replicas = new LinkedHashMap<>();
+        long bytes;
+
+        NodeLoad(String url) {
+            this.url = url;
+        }
+
+        void add(Replica replica) {
+            if (replicas.putIfAbsent(replica.storageKey, replica) == null) {
+                bytes += replica.bytes;
+            }
+        }
+
+        void remove(Replica replica) {
+            if (replicas.remove(replica.storageKey) != null) {
+                bytes -= replica.bytes;
+            }
+        }
+    }
+
+    /**
+     * Movimiento planificado de una réplica
+     */
+    static class Move {
+        final Replica replica;
+        final String sourceUrl;
+        final String targetUrl;
+
+        Move(Replica replica, String sourceUrl, String targetUrl) {
+            this.replica = replica;
+            this.sourceUrl = sourceUrl;
+            this.targetUrl = targetUrl;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.tpdteam3.master.service;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Cliente HTTP para las operaciones del Master sobre fragmentos en los chunkservers
+ * (copias de rebalanceo, réplicas adicionales y limpieza)
+ */
+@Service
+public class ChunkserverClient {
+
+    @Value("${master.chunkserver.connect-timeout-ms:2000}")
+    private int connectTimeoutMs;
+
+    @Value("${master.chunkserver.read-timeout-ms:10000}")
+    private int readTimeoutMs;
+
+    private RestTemplate restTemplate = new RestTemplate();
+
+    @PostConstruct
+    public void init() {
+        // Sin timeouts, un chunkserver colgado bloquearía indefinidamente al hilo que lo llama
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(connectTimeoutMs);
+        requestFactory.setReadTimeout(readTimeoutMs);
+        restTemplate = new RestTemplate(requestFactory);
+        System.out.println("🔌 Cliente de chunkservers: connect-timeout=" + connectTimeoutMs +
+                           " ms, read-timeout=" + readTimeoutMs + " ms");
+    }
+
+    /**
+     * Lee el contenido de un fragmento almacenado en un chunkserver
+     */
+    public byte[] readChunk(String chunkserverUrl, String imagenId, int chunkIndex) {
+        String readUrl = chunkserverUrl + "/api/chunk/read?imagenId=" + imagenId + "&chunkIndex=" + chunkIndex;
+        byte[] data = restTemplate.getForObject(readUrl, byte[].class);
+        if (data == null) {
+            throw new RuntimeException("Fragmento vacío en " + chunkserverUrl + ": " + imagenId + "#" + chunkIndex);
+        }
+        return data;
+    }
+
+    /**
+     * Escribe el contenido de un fragmento en un chunkserver
+     */
+    public void writeChunk(String chunkserverUrl, String imagenId, int chunkIndex, byte[] data) {
+        String writeUrl = chunkserverUrl + "/api/chunk/write";
+
+        MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+        body.add("imagenId", imagenId);
+        body.add("chunkIndex", String.valueOf(chunkIndex));
+        body.add("file", new ByteArrayResource(data) {
+            @Override
+            public String getFilename() {
+                return imagenId + "_" + chunkIndex;
+            }
+        });
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+
+        restTemplate.postForEntity(writeUrl, new HttpEntity<>(body, headers), String.class);
+    }
+
+    /**
+     * Elimina un fragmento de un chunkserver
+     */
+    public void deleteChunk(String chunkserverUrl, String imagenId, int chunkIndex) {
+        String deleteUrl = chunkserverUrl + "/api/chunk/delete?imagenId=" + imagenId + "&chunkIndex=" + chunkIndex;
+        restTemplate.delete(deleteUrl);
+    }
+
+    /**
+     * Copia un fragmento de un chunkserver a otro
+     */
+    public int copyChunk(String sourceUrl, String targetUrl, String imagenId, int chunkIndex) {
+        byte[] data = readChunk(sourceUrl, imagenId, chunkIndex);
+        writeChunk(targetUrl, imagenId, chunkIndex, data);
+        return data.length;
+    }
+}
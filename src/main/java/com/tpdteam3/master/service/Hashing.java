@@ -0,0 +1,35 @@
+package com.tpdteam3.master.service;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Hash de 64 bits compartido por la ubicación rendezvous y el sketch de accesos:
+ * FNV-1a de 64 bits sobre los bytes UTF-8 de la clave, mezclado con fmix64 (murmur3)
+ *
+ * Los clientes que calculan ubicaciones rendezvous usan la misma función, así que
+ * cualquier cambio aquí cambia la ubicación de todos los archivos existentes
+ */
+final class Hashing {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private Hashing() {
+    }
+
+    static long hash64(String key) {
+        long hash = FNV_OFFSET_BASIS;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= (b & 0xff);
+            hash *= FNV_PRIME;
+        }
+
+        // fmix64 (murmur3) para repartir mejor los bits
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,277 @@
+package com.tpdteam3.master.service;
+
+import com.tpdteam3.master.model.FileMetadata;
+import com.tpdteam3.master.model.FileMetadata.ChunkMetadata;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replicación adaptativa para imágenes "calientes"
+ * Los archivos cuya frecuencia de lectura supera el umbral de promoción reciben réplicas
+ * adicionales hasta el factor de replicación caliente; cuando se enfrían por debajo del
+ * umbral de degradación se eliminan las réplicas adicionales y vuelven al factor base
+ */
+@Service
+public class HotReplicationService {
+
+    @Autowired
+    private MasterService masterService;
+
+    @Autowired
+    private AccessTrackingService accessTracker;
+
+    @Autowired
+    private ChunkserverClient chunkserverClient;
+
+    @Autowired
+    private ChunkInventoryService inventoryService;
+
+    @Value("${master.hot.enabled:true}")
+    private boolean enabled;
+
+    @Value("${master.hot.replication-factor:5}")
+    private int hotReplicationFactor;
+
+    @Value("${master.hot.promote-threshold:100}")
+    private long promoteThreshold;
+
+    // Menor que el umbral de promoción para evitar oscilaciones
+    @Value("${master.hot.demote-threshold:20}")
+    private long demoteThreshold;
+
+    // Archivos promovidos → momento de la promoción
+    private final Map<String, Long> promoted = new ConcurrentHashMap<>();
+
+    private final AtomicLong promotions = new AtomicLong();
+    private final AtomicLong demotions = new AtomicLong();
+    private final AtomicLong replicasAdded = new AtomicLong();
+    private final AtomicLong replicasRemoved = new AtomicLong();
+    private int nextTargetIndex = 0;
+
+    /**
+     * Recupera los archivos que quedaron con réplicas calientes antes de reiniciar
+     */
+    @PostConstruct
+    public void init() {
+        for (FileMetadata metadata : masterService.listFiles()) {
+            if (metadata.getChunks().stream().anyMatch(ChunkMetadata::isHot)) {
+                promoted.put(metadata.getImagenId(), System.currentTimeMillis());
+            }
+        }
+    }
+
+    /**
+     * Evalúa candidatos y archivos promovidos: promueve los calientes y degrada los fríos
+     */
+    @Scheduled(initialDelayString = "${master.hot.interval-ms:30000}",
+               fixedDelayString = "${master.hot.interval-ms:30000}")
+    public void evaluate() {
+        if (!enabled) {
+            return;
+        }
+
+        for (String imagenId : new ArrayList<>(accessTracker.getCandidates())) {
+            long frequency = accessTracker.estimate(imagenId);
+            if (masterService.findMetadata(imagenId) == null || frequency < demoteThreshold) {
+                accessTracker.removeCandidate(imagenId);
+            } else if (frequency >= promoteThreshold && !promoted.containsKey(imagenId)) {
+                promote(imagenId, frequency);
+            }
+        }
+
+        for (String imagenId : new ArrayList<>(promoted.keySet())) {
+            if (masterService.findMetadata(imagenId) == null) {
+                promoted.remove(imagenId);
+            } else if (accessTracker.estimate(imagenId) < demoteThreshold) {
+                demote(imagenId);
+            }
+        }
+    }
+
+    /**
+     * Agrega réplicas a cada fragmento del archivo hasta el factor caliente
+     */
+    private void promote(String imagenId, long frequency) {
+        FileMetadata metadata = masterService.findMetadata(imagenId);
+        List<String> active = masterService.getActiveChunkservers();
+        int targetFactor = Math.min(hotReplicationFactor, active.size());
+        if (metadata == null || targetFactor <= masterService.getReplicationFactor()) {
+            return;
+        }
+
+        System.out.println("🔥 Imagen caliente: " + imagenId + " (frecuencia ≈ " + frequency +
+                           ") → " + targetFactor + " réplicas");
+
+        Set<String> pending = masterService.getPendingReplicaKeys();
+        List<ChunkMetadata> copied = new ArrayList<>();
+        for (Map.Entry<String, List<ChunkMetadata>> entry : replicasByStorageKey(metadata).entrySet()) {
+            List<ChunkMetadata> replicas = entry.getValue();
+            ChunkMetadata sample = replicas.get(0);
+            Set<String> holders = new HashSet<>();
+            replicas.forEach(c -> holders.add(c.getChunkserverUrl()));
+
+            // Tampoco se copia donde un plan pendiente está escribiendo la misma clave
+            Set<String> excluded = new HashSet<>(holders);
+            active.stream().filter(url -> pending.contains(entry.getKey() + "@" + url)).forEach(excluded::add);
+
+            for (String target : pickTargets(active, excluded, targetFactor - holders.size())) {
+                try {
+                    copyFromAnyHolder(holders, target, sample);
+                    inventoryService.recordWrite(target, sample.storageKey());
+                    ChunkMetadata copy = new ChunkMetadata(sample);
+                    copy.setChunkserverId(target);
+                    copy.setChunkserverUrl(target);
+                    copied.add(copy);
+                    holders.add(target);
+                } catch (Exception e) {
+                    System.err.println("   ❌ No se pudo replicar " + entry.getKey() + " en " + target +
+                                       ": " + e.getMessage());
+                }
+            }
+        }
+
+        // Registrar todas las copias de una vez (una sola escritura de metadatos)
+        List<ChunkMetadata> added = masterService.addReplicas(copied, true);
+        replicasAdded.addAndGet(added.size());
+        if (added.size() < copied.size()) {
+            // El archivo se borró o cambió durante la copia: las copias sin registrar sobran
+            List<ChunkMetadata> unused = new ArrayList<>(copied);
+            unused.removeAll(added);
+            masterService.reclaimReplicas(unused);
+        }
+
+        promoted.put(imagenId, System.currentTimeMillis());
+        promotions.incrementAndGet();
+    }
+
+    /**
+     * Elimina las réplicas calientes y vuelve al factor de replicación base
+     * Se conservan las de fragmentos que otro archivo todavía caliente lee (deduplicación)
+     * y las de fragmentos con réplicas base faltantes; el archivo sigue promovido hasta
+     * que se puedan quitar todas
+     */
+    private void demote(String imagenId) {
+        FileMetadata metadata = masterService.findMetadata(imagenId);
+        if (metadata == null) {
+            promoted.remove(imagenId);
+            return;
+        }
+
+        System.out.println("❄️ Imagen enfriada: " + imagenId + " → " +
+                           masterService.getReplicationFactor() + " réplicas");
+
+        boolean complete = true;
+        List<ChunkMetadata> demoted = new ArrayList<>();
+        for (Map.Entry<String, List<ChunkMetadata>> entry : replicasByStorageKey(metadata).entrySet()) {
+            List<ChunkMetadata> replicas = entry.getValue();
+            ChunkMetadata sample = replicas.get(0);
+            if (replicas.stream().noneMatch(ChunkMetadata::isHot)) {
+                continue;
+            }
+            if (replicas.stream().anyMatch(c -> !c.isHot() && c.isMissing())) {
+                System.out.println("   ⏸️ " + entry.getKey() + ": faltan réplicas base, se conservan las calientes");
+                complete = false;
+                continue;
+            }
+            if (readByOtherHotFile(imagenId, sample)) {
+                System.out.println("   ⏸️ " + entry.getKey() + ": otro archivo caliente lo comparte");
+                complete = false;
+                continue;
+            }
+
+            replicas.stream().filter(ChunkMetadata::isHot).forEach(demoted::add);
+        }
+
+        // Primero los metadatos (una sola escritura), para que ningún cliente nuevo lea las
+        // réplicas que se borran; un plan pendiente puede estar escribiendo la misma clave,
+        // por eso el borrado pasa por la comprobación del Master
+        List<ChunkMetadata> removed = masterService.removeReplicas(demoted);
+        replicasRemoved.addAndGet(masterService.reclaimReplicas(removed).size());
+
+        if (complete) {
+            promoted.remove(imagenId);
+            demotions.incrementAndGet();
+        }
+    }
+
+    private boolean readByOtherHotFile(String imagenId, ChunkMetadata chunk) {
+        for (String referrer : masterService.referrersOf(chunk.getStorageImagenId(), chunk.getStorageChunkIndex())) {
+            if (!referrer.equals(imagenId) && accessTracker.estimate(referrer) >= demoteThreshold) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Map<String, List<ChunkMetadata>> replicasByStorageKey(FileMetadata metadata) {
+        Map<String, List<ChunkMetadata>> byKey = new LinkedHashMap<>();
+        for (ChunkMetadata chunk : metadata.getChunks()) {
+            byKey.computeIfAbsent(chunk.storageKey(), k -> new ArrayList<>()).add(chunk);
+        }
+        return byKey;
+    }
+
+    /**
+     * Elige chunkservers que todavía no tienen el fragmento, rotando el punto de inicio
+     */
+    private List<String> pickTargets(List<String> active, Set<String> excluded, int count) {
+        List<String> targets = new ArrayList<>();
+        for (int i = 0; i < active.size() && targets.size() < count; i++) {
+            String candidate = active.get((nextTargetIndex + i) % active.size());
+            if (!excluded.contains(candidate)) {
+                targets.add(candidate);
+            }
+        }
+        nextTargetIndex++;
+        return targets;
+    }
+
+    private void copyFromAnyHolder(Set<String> holders, String target, ChunkMetadata chunk) {
+        RuntimeException lastFailure = null;
+        for (String source : holders) {
+            try {
+                chunkserverClient.copyChunk(source, target, chunk.getStorageImagenId(), chunk.getStorageChunkIndex());
+                return;
+            } catch (RuntimeException e) {
+                lastFailure = e;
+            }
+        }
+        throw lastFailure != null ? lastFailure : new RuntimeException("Sin réplicas de origen");
+    }
+
+    /**
+     * Estado de la replicación adaptativa
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("enabled", enabled);
+        status.put("hotReplicationFactor", hotReplicationFactor);
+        status.put("baseReplicationFactor", masterService.getReplicationFactor());
+        status.put("promoteThreshold", promoteThreshold);
+        status.put("demoteThreshold", demoteThreshold);
+        status.put("promotions", promotions.get());
+        status.put("demotions", demotions.get());
+        status.put("replicasAdded", replicasAdded.get());
+        status.put("replicasRemoved", replicasRemoved.get());
+
+        List<Map<String, Object>> hotFiles = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : promoted.entrySet()) {
+            Map<String, Object> file = new HashMap<>();
+            file.put("imagenId", entry.getKey());
+            file.put("promotedAt", entry.getValue());
+            file.put("frequency", accessTracker.estimate(entry.getKey()));
+            hotFiles.add(file);
+        }
+        status.put("hotFiles", hotFiles);
+        status.put("accessTracking", accessTracker.getStats());
+
+        return status;
+    }
+}
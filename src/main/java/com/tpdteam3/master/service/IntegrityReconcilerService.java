@@ -0,0 +1,429 @@
+package com.tpdteam3.master.service;
+
+import com.tpdteam3.master.model.FileMetadata;
+import com.tpdteam3.master.model.FileMetadata.ChunkMetadata;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reconciliación de integridad entre los metadatos del Master y los inventarios de los chunkservers
+ *
+ * En segundo plano compara lo que cada chunkserver reporta con el índice inverso de los metadatos:
+ * - fragmentos reportados que ningún archivo referencia → huérfanos, se encolan para borrado
+ * - réplicas esperadas que el chunkserver no reporta → faltantes, se excluyen de las lecturas
+ *   y se encolan para reparación desde una réplica sana
+ * Un hallazgo solo se aplica si se repite en dos ciclos consecutivos con un reporte nuevo
+ * (recibido después de que empezó el ciclo anterior), para no actuar sobre escrituras o
+ * borrados que los reportes todavía no reflejan. Las réplicas de archivos confirmados después
+ * del último reporte no se consideran faltantes
+ */
+@Service
+public class IntegrityReconcilerService {
+
+    @Autowired
+    private MasterService masterService;
+
+    @Autowired
+    private ChunkInventoryService inventoryService;
+
+    @Autowired
+    private ChunkserverClient chunkserverClient;
+
+    @Value("${master.reconciler.enabled:true}")
+    private boolean enabled;
+
+    // Un inventario más antiguo que esto no se usa para decidir
+    @Value("${master.reconciler.max-report-age-ms:600000}")
+    private long maxReportAgeMs;
+
+    // Borrados y reparaciones por ciclo, para no saturar a los chunkservers
+    @Value("${master.reconciler.max-actions-per-cycle:100}")
+    private int maxActionsPerCycle;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    // Hallazgos del ciclo anterior ("clave física@chunkserver")
+    private Set<String> suspectedOrphans = new HashSet<>();
+    private Set<String> suspectedMissing = new HashSet<>();
+
+    // Colas de trabajo (clave "clave física@chunkserver" → réplica)
+    private final Map<String, QueuedReplica> deletionQueue = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Map<String, QueuedReplica> repairQueue = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    private final AtomicLong orphansDeleted = new AtomicLong();
+    private final AtomicLong replicasMarkedMissing = new AtomicLong();
+    private final AtomicLong replicasRepaired = new AtomicLong();
+    private final AtomicLong replicasRecovered = new AtomicLong();
+    private final AtomicLong actionsFailed = new AtomicLong();
+
+    private volatile long previousRunStarted;
+    private volatile long lastRunStarted;
+    private volatile long lastRunFinished;
+    private volatile int lastServersChecked;
+
+    @Scheduled(initialDelayString = "${master.reconciler.interval-ms:300000}",
+               fixedDelayString = "${master.reconciler.interval-ms:300000}")
+    public void scheduledReconcile() {
+        if (enabled) {
+            runCycle();
+        }
+    }
+
+    /**
+     * Lanza un ciclo de reconciliación en segundo plano
+     *
+     * @return false si ya hay un ciclo en ejecución
+     */
+    public boolean triggerAsync() {
+        if (running.get()) {
+            return false;
+        }
+        CompletableFuture.runAsync(this::runCycle);
+        return true;
+    }
+
+    /**
+     * Ejecuta un ciclo: diff de inventarios, luego borrados y reparaciones con límite
+     */
+    public void runCycle() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        previousRunStarted = lastRunStarted;
+        lastRunStarted = System.currentTimeMillis();
+        try {
+            diffInventories();
+            processDeletions();
+            processRepairs();
+        } catch (Exception e) {
+            System.err.println("❌ Error en reconciliación: " + e.getMessage());
+        } finally {
+            lastRunFinished = System.currentTimeMillis();
+            running.set(false);
+        }
+    }
+
+    /**
+     * Compara cada inventario confiable con las réplicas que los metadatos esperan en ese chunkserver
+     */
+    private void diffInventories() {
+        // Índice inverso de los metadatos: chunkserver → clave física → réplica esperada
+        Map<String, Map<String, ExpectedReplica>> expected = new HashMap<>();
+        for (FileMetadata metadata : masterService.listFiles()) {
+            for (ChunkMetadata chunk : metadata.getChunks()) {
+                ExpectedReplica replica = expected.computeIfAbsent(chunk.getChunkserverUrl(), k -> new HashMap<>())
+                                                  .computeIfAbsent(chunk.storageKey(), k -> new ExpectedReplica(chunk));
+                // Desde cuándo se espera: el commit más antiguo entre los archivos que la referencian
+                replica.since = Math.min(replica.since, metadata.getTimestamp());
+            }
+        }
+        Set<String> pending = masterService.getPendingReplicaKeys();
+
+        Set<String> orphansSeen = new HashSet<>();
+        Set<String> missingSeen = new HashSet<>();
+        // Cambios de marca de faltante: se aplican juntos al final (una sola escritura de metadatos)
+        List<ChunkMetadata> recovered = new ArrayList<>();
+        List<ChunkMetadata> confirmed = new ArrayList<>();
+        int serversChecked = 0;
+
+        for (String url : masterService.getChunkservers()) {
+            ChunkInventoryService.InventorySnapshot inventory = inventoryService.getReliableInventory(url, maxReportAgeMs);
+            if (inventory == null) {
+                continue;
+            }
+            serversChecked++;
+            Set<String> reported = inventory.chunks;
+            Map<String, ExpectedReplica> expectedHere = expected.getOrDefault(url, Collections.emptyMap());
+
+            // Un reporte que ya se usó en el ciclo anterior no confirma nada: solo mantiene las sospechas
+            boolean freshReport = inventory.reportedAt > previousRunStarted;
+
+            // 1. Huérfanos: reportados pero sin referencia (ni plan pendiente que los esté escribiendo)
+            for (String storageKey : reported) {
+                String replicaKey = storageKey + "@" + url;
+                if (expectedHere.containsKey(storageKey) || pending.contains(replicaKey)) {
+                    continue;
+                }
+                QueuedReplica orphan = QueuedReplica.parse(storageKey, url);
+                if (orphan == null) {
+                    continue; // Clave mal formada en el reporte
+                }
+                orphansSeen.add(replicaKey);
+                if (freshReport && suspectedOrphans.contains(replicaKey)) {
+                    deletionQueue.putIfAbsent(replicaKey, orphan);
+                }
+            }
+
+            // 2. Faltantes: esperados pero no reportados
+            for (Map.Entry<String, ExpectedReplica> entry : expectedHere.entrySet()) {
+                String replicaKey = entry.getKey() + "@" + url;
+                ChunkMetadata chunk = entry.getValue().chunk;
+                boolean present = reported.contains(entry.getKey());
+
+                if (present) {
+                    if (chunk.isMissing()) {
+                        // Volvió a aparecer (p. ej. disco reinsertado)
+                        recovered.add(chunk);
+                        repairQueue.remove(replicaKey);
+                    }
+                    continue;
+                }
+
+                // Confirmado después del reporte: el cliente pudo escribirlo después de que se generó
+                if (entry.getValue().since > inventory.reportedAt) {
+                    continue;
+                }
+
+                missingSeen.add(replicaKey);
+                if (chunk.isMissing()) {
+                    repairQueue.putIfAbsent(replicaKey, new QueuedReplica(chunk.getStorageImagenId(),
+                                                                          chunk.getStorageChunkIndex(), url));
+                } else if (freshReport && suspectedMissing.contains(replicaKey)) {
+                    confirmed.add(chunk);
+                    repairQueue.putIfAbsent(replicaKey, new QueuedReplica(chunk.getStorageImagenId(),
+                                                                          chunk.getStorageChunkIndex(), url));
+                    System.out.println("⚠️ Réplica faltante: " + replicaKey);
+                }
+            }
+        }
+
+        replicasRecovered.addAndGet(masterService.markReplicasMissing(recovered, false).size());
+        replicasMarkedMissing.addAndGet(masterService.markReplicasMissing(confirmed, true).size());
+
+        suspectedOrphans = orphansSeen;
+        suspectedMissing = missingSeen;
+        lastServersChecked = serversChecked;
+    }
+
+    /**
+     * Borra los huérfanos confirmados (con límite por ciclo)
+     */
+    private void processDeletions() {
+        List<ChunkMetadata> orphans = new ArrayList<>();
+        for (QueuedReplica replica : drain(deletionQueue, maxActionsPerCycle)) {
+            orphans.add(replica.toChunk());
+        }
+
+        // El Master vuelve a comprobar cada réplica bajo su lock: un commit o un plan nuevo
+        // pudo reclamar la clave desde el diff
+        for (ChunkMetadata deleted : masterService.reclaimReplicas(orphans)) {
+            orphansDeleted.incrementAndGet();
+            System.out.println("🧹 Huérfano eliminado: " + deleted.storageKey() + "@" + deleted.getChunkserverUrl());
+        }
+    }
+
+    /**
+     * Repara réplicas faltantes copiando desde una réplica sana: primero al mismo chunkserver
+     * y, si no es posible, a otro chunkserver activo que no tenga el fragmento
+     */
+    private void processRepairs() {
+        Map<String, List<ChunkMetadata>> replicasByKey = new HashMap<>();
+        for (FileMetadata metadata : masterService.listFiles()) {
+            for (ChunkMetadata chunk : metadata.getChunks()) {
+                replicasByKey.computeIfAbsent(chunk.storageKey(), k -> new ArrayList<>()).add(chunk);
+            }
+        }
+
+        List<ChunkMetadata> repairedInPlace = new ArrayList<>();
+        for (QueuedReplica replica : drain(repairQueue, maxActionsPerCycle)) {
+            List<ChunkMetadata> replicas = replicasByKey.getOrDefault(replica.storageKey(), Collections.emptyList());
+
+            Set<String> holders = new HashSet<>();
+            List<String> healthy = new ArrayList<>();
+            ChunkMetadata missing = null;
+            for (ChunkMetadata chunk : replicas) {
+                holders.add(chunk.getChunkserverUrl());
+                if (chunk.getChunkserverUrl().equals(replica.url)) {
+                    if (chunk.isMissing()) {
+                        missing = chunk;
+                    }
+                } else if (!chunk.isMissing() && !healthy.contains(chunk.getChunkserverUrl())) {
+                    healthy.add(chunk.getChunkserverUrl());
+                }
+            }
+            if (missing == null) {
+                continue;
+            }
+            if (healthy.isEmpty()) {
+                actionsFailed.incrementAndGet();
+                System.err.println("   ❌ Sin réplicas sanas para reparar " + replica.replicaKey());
+                continue;
+            }
+
+            if (repairInPlace(replica, healthy)) {
+                repairedInPlace.add(missing);
+                replicasRepaired.incrementAndGet();
+            } else if (repairElsewhere(replica, healthy, holders)) {
+                replicasRepaired.incrementAndGet();
+            } else {
+                actionsFailed.incrementAndGet();
+            }
+        }
+
+        // Las réplicas copiadas en su mismo chunkserver vuelven a leerse (una sola escritura de metadatos)
+        masterService.markReplicasMissing(repairedInPlace, false);
+    }
+
+    private boolean repairInPlace(QueuedReplica replica, List<String> healthy) {
+        if (!masterService.getActiveChunkservers().contains(replica.url)) {
+            return false;
+        }
+        for (String source : healthy) {
+            try {
+                chunkserverClient.copyChunk(source, replica.url, replica.storageImagenId, replica.storageChunkIndex);
+                inventoryService.recordWrite(replica.url, replica.storageKey());
+                System.out.println("🩹 Réplica reparada: " + replica.replicaKey());
+                return true;
+            } catch (Exception e) {
+                // Probar con otra réplica sana
+            }
+        }
+        return false;
+    }
+
+    private boolean repairElsewhere(QueuedReplica replica, List<String> healthy, Set<String> holders) {
+        for (String target : masterService.getActiveChunkservers()) {
+            if (holders.contains(target)
+                || masterService.holdsReplica(replica.storageImagenId, replica.storageChunkIndex, target)) {
+                continue;
+            }
+            for (String source : healthy) {
+                try {
+                    chunkserverClient.copyChunk(source, target, replica.storageImagenId, replica.storageChunkIndex);
+                    inventoryService.recordWrite(target, replica.storageKey());
+                } catch (Exception e) {
+                    // Probar con otro origen
+                    continue;
+                }
+
+                int updated;
+                try {
+                    updated = masterService.relocateReplica(replica.storageImagenId, replica.storageChunkIndex,
+                                                            replica.url, target);
+                } catch (IllegalStateException e) {
+                    // El destino recibió la clave durante la copia (mismo contenido): probar otro destino
+                    break;
+                }
+                if (updated == 0) {
+                    // La réplica dejó de referenciarse durante la copia: descartar la copia
+                    discardCopy(target, replica);
+                    System.out.println("🩹 Réplica ya no referenciada: " + replica.replicaKey());
+                } else {
+                    System.out.println("🩹 Réplica reubicada: " + replica.replicaKey() + " → " + target);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void discardCopy(String url, QueuedReplica replica) {
+        // Pasa por el Master: otro archivo o un plan pendiente pudo empezar a usar la clave en ese destino
+        if (!masterService.reclaimReplica(replica.storageImagenId, replica.storageChunkIndex, url)) {
+            System.err.println("   ⚠️ No se descartó la copia de " + replica.storageKey() + " en " + url);
+        }
+    }
+
+    private List<QueuedReplica> drain(Map<String, QueuedReplica> queue, int max) {
+        List<QueuedReplica> batch = new ArrayList<>();
+        synchronized (queue) {
+            Iterator<QueuedReplica> iterator = queue.values().iterator();
+            while (iterator.hasNext() && batch.size() < max) {
+                batch.add(iterator.next());
+                iterator.remove();
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Estado del reconciliador para el endpoint de administración
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("enabled", enabled);
+        status.put("running", running.get());
+        status.put("lastRunStarted", lastRunStarted);
+        status.put("lastRunFinished", lastRunFinished);
+        status.put("lastServersChecked", lastServersChecked);
+        status.put("suspectedOrphans", suspectedOrphans.size());
+        status.put("suspectedMissing", suspectedMissing.size());
+        status.put("deletionQueue", deletionQueue.size());
+        status.put("repairQueue", repairQueue.size());
+        status.put("orphansDeleted", orphansDeleted.get());
+        status.put("replicasMarkedMissing", replicasMarkedMissing.get());
+        status.put("replicasRepaired", replicasRepaired.get());
+        status.put("replicasRecovered", replicasRecovered.get());
+        status.put("actionsFailed", actionsFailed.get());
+        status.put("inventories", inventoryService.getStats());
+        return status;
+    }
+
+    /**
+     * Réplica que los metadatos esperan en un chunkserver
+     */
+    private static class ExpectedReplica {
+        final ChunkMetadata chunk;
+        long since = Long.MAX_VALUE;
+
+        ExpectedReplica(ChunkMetadata chunk) {
+            this.chunk = chunk;
+        }
+    }
+
+    /**
+     * Réplica física encolada para borrado o reparación
+     */
+    static class QueuedReplica {
+        final String storageImagenId;
+        final int storageChunkIndex;
+        final String url;
+
+        QueuedReplica(String storageImagenId, int storageChunkIndex, String url) {
+            this.storageImagenId = storageImagenId;
+            this.storageChunkIndex = storageChunkIndex;
+            this.url = url;
+        }
+
+        /**
+         * Réplica con los campos que usan las operaciones del Master sobre claves físicas
+         */
+        ChunkMetadata toChunk() {
+            ChunkMetadata chunk = new ChunkMetadata(storageChunkIndex, url, url);
+            chunk.setStorageImagenId(storageImagenId);
+            chunk.setStorageChunkIndex(storageChunkIndex);
+            return chunk;
+        }
+
+        /**
+         * Interpreta una clave "imagenId#chunkIndex" de un inventario (null si está mal formada)
+         */
+        static QueuedReplica parse(String storageKey, String url) {
+            int separator = storageKey.lastIndexOf('#');
+            if (separator <= 0) {
+                return null;
+            }
+            try {
+                return new QueuedReplica(storageKey.substring(0, separator),
+                                         Integer.parseInt(storageKey.substring(separator + 1)), url);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        String storageKey() {
+            return storageImagenId + "#" + storageChunkIndex;
+        }
+
+        String replicaKey() {
+            return storageKey() + "@" + url;
+        }
+    }
+}
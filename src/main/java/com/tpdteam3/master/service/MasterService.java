@@ -4,9 +4,17 @@ import com.tpdteam3.master.model.FileMetadata;
 import com.tpdteam3.master.model.FileMetadata.ChunkMetadata;
 import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
 
 @Service
 public class MasterService {
@@ -14,16 +22,50 @@ public class MasterService {
     @Autowired
     private MetadataPersistenceService persistenceService;
 
+    @Autowired
+    private ChunkDeduplicationService deduplicationService;
+
+    @Autowired
+    private ChunkserverClient chunkserverClient;
+
+    @Autowired
+    private NamespaceIndexService namespaceIndex;
+
+    @Autowired
+    private PlacementService placementService;
+
+    @Autowired
+    private ChunkInventoryService inventoryService;
+
     // Almacena metadatos de archivos en memoria (cargados desde disco)
     private Map<String, FileMetadata> fileMetadataStore;
 
+    // Planes de upload aún no confirmados: solo en memoria, expiran tras el TTL
+    private final Map<String, PendingUpload> pendingUploads = new ConcurrentHashMap<>();
+
+    // Réplicas ("clave física@chunkserver") borrándose ahora y momento en que terminó cada borrado
+    // (protegidos por el lock del servicio)
+    private final Set<String> reclaimingReplicas = new HashSet<>();
+    private final Map<String, Long> reclaimedReplicas = new HashMap<>();
+
+    @Value("${master.upload.pending-ttl-ms:600000}")
+    private long pendingUploadTtlMs;
+
+    // Verificar al confirmar que los fragmentos escritos coinciden con el hash declarado
+    @Value("${master.dedup.verify-on-commit:true}")
+    private boolean verifyHashesOnCommit;
+
     // Lista de chunkservers disponibles CON context-path
-    private final List<String> chunkservers = new ArrayList<>();
+    private final List<String> chunkservers = new CopyOnWriteArrayList<>();
     private int nextChunkserverIndex = 0;
 
+    // Chunkservers en drenaje: no reciben fragmentos nuevos y el rebalanceador los vacía
+    private final Set<String> drainingChunkservers = ConcurrentHashMap.newKeySet();
+
     // ✅ CONFIGURACIÓN DE REPLICACIÓN
     private static final int REPLICATION_FACTOR = 3; // Número de réplicas por chunk
     private static final int CHUNK_SIZE = 32 * 1024; // 32KB por fragmento
+    private static final Pattern SHA256_HEX = Pattern.compile("[0-9a-f]{64}");
 
     @PostConstruct
     public void init() {
@@ -33,17 +75,25 @@ public class MasterService {
 
         // 1. CARGAR METADATOS DESDE DISCO
         fileMetadataStore = persistenceService.loadMetadata();
+        fileMetadataStore.values().forEach(this::materializePlacement);
+        fileMetadataStore.values().forEach(this::fillStorageKeys);
+        deduplicationService.rebuild(fileMetadataStore.values());
+        namespaceIndex.rebuild(fileMetadataStore.values());
 
         // 2. Registrar chunkservers CON el context-path
         chunkservers.add("http://localhost:9001/chunkserver1");
         chunkservers.add("http://localhost:9002/chunkserver2");
         chunkservers.add("http://localhost:9003/chunkserver3");
+        placementService.updateMembership(getActiveChunkservers());
 
         System.out.println("📊 Configuración:");
         System.out.println("   ├─ Metadatos recuperados: " + fileMetadataStore.size() + " archivos");
         System.out.println("   ├─ Chunkservers disponibles: " + chunkservers.size());
         chunkservers.forEach(cs -> System.out.println("   │  └─ " + cs));
         System.out.println("   ├─ Factor de replicación: " + REPLICATION_FACTOR + "x");
+        System.out.println("   ├─ Ubicación: " + (placementService.isRendezvousEnabled()
+                ? "rendezvous (época " + placementService.getCurrentEpoch() + ")"
+                : "round-robin"));
         System.out.println("   └─ Tamaño de fragmento: " + (CHUNK_SIZE / 1024) + " KB");
         System.out.println();
     }
@@ -52,11 +102,42 @@ public class MasterService {
      * Planifica dónde se almacenarán los fragmentos de un archivo CON REPLICACIÓN
      */
     public FileMetadata planUpload(String imagenId, long fileSize) {
+        return planUpload(imagenId, fileSize, null);
+    }
+
+    /**
+     * Planifica un upload CON DEDUPLICACIÓN: los fragmentos cuyo hash de contenido ya
+     * está almacenado reutilizan las réplicas existentes y se marcan como deduplicados
+     *
+     * El plan queda como reserva pendiente EN MEMORIA hasta que el cliente confirma sus
+     * escrituras con commitUpload(); si no se confirma antes del TTL se descarta
+     *
+     * @param chunkHashes SHA-256 del contenido de cada fragmento en hexadecimal (64 caracteres),
+     *                    opcional, uno por fragmento
+     */
+    public synchronized FileMetadata planUpload(String imagenId, long fileSize, List<String> chunkHashes) {
         FileMetadata metadata = new FileMetadata(imagenId, fileSize);
 
         // Calcular número de fragmentos necesarios
         int numChunks = (int) Math.ceil((double) fileSize / CHUNK_SIZE);
 
+        if (chunkHashes != null && chunkHashes.size() != numChunks) {
+            throw new IllegalArgumentException("Se esperaban " + numChunks + " hashes de fragmento, se recibieron " +
+                                               chunkHashes.size());
+        }
+
+        // Re-subida de un archivo existente: sus fragmentos se sobrescribirán
+        if (fileMetadataStore.containsKey(imagenId) && deduplicationService.isStorageSharedWithOthers(imagenId)) {
+            throw new IllegalStateException("Los fragmentos de " + imagenId +
+                                            " son compartidos por otros archivos; use un imagenId nuevo");
+        }
+
+        // Un plan anterior del mismo archivo sin confirmar queda reemplazado
+        PendingUpload replaced = pendingUploads.remove(imagenId);
+        List<ChunkMetadata> abandoned = replaced != null
+                ? abandonPlan(replaced.getMetadata())
+                : Collections.emptyList();
+
         System.out.println("╔════════════════════════════════════════════════════════╗");
         System.out.println("║  📋 PLANIFICANDO UPLOAD CON REPLICACIÓN               ║");
         System.out.println("╚════════════════════════════════════════════════════════╝");
@@ -66,40 +147,649 @@ public class MasterService {
         System.out.println("   Réplicas por fragmento: " + REPLICATION_FACTOR);
         System.out.println();
 
+        // Ubicación determinista: el layout queda fijado a la época de membresía vigente
+        List<String> members = null;
+        if (placementService.isRendezvousEnabled() && placementService.getCurrentEpoch() > 0) {
+            long epoch = placementService.getCurrentEpoch();
+            members = placementService.getMembership(epoch);
+            metadata.setPlacementMode(FileMetadata.PLACEMENT_RENDEZVOUS);
+            metadata.setMembershipEpoch(epoch);
+            metadata.setNumChunks(numChunks);
+            if (chunkHashes != null) {
+                List<String> normalized = new ArrayList<>();
+                chunkHashes.forEach(h -> normalized.add(normalizeHash(h)));
+                metadata.setContentHashes(normalized);
+            }
+        }
+
+        int deduplicatedChunks = 0;
+
+        // Contenido nuevo dentro de este mismo plan: hash → primer fragmento que lo almacena
+        Map<String, Integer> freshInPlan = new HashMap<>();
+
         // Asignar cada fragmento a MÚLTIPLES chunkservers (replicación)
         for (int i = 0; i < numChunks; i++) {
-            List<String> replicaLocations = selectChunkserversForReplicas(REPLICATION_FACTOR);
+            String hash = chunkHashes != null ? normalizeHash(chunkHashes.get(i)) : null;
+
+            // 1. ¿El contenido ya está almacenado? Reutilizar sus réplicas
+            if (hash != null) {
+                String storageImagenId = null;
+                int storageChunkIndex = 0;
+                List<ChunkMetadata> existingReplicas = Collections.emptyList();
+
+                ChunkDeduplicationService.DedupEntry existing = deduplicationService.lookup(hash);
+                if (freshInPlan.containsKey(hash)) {
+                    storageImagenId = imagenId;
+                    storageChunkIndex = freshInPlan.get(hash);
+                    existingReplicas = findReplicas(storageImagenId + "#" + storageChunkIndex, metadata);
+                } else if (existing != null && !existing.getStorageImagenId().equals(imagenId)
+                           && !pendingUploads.containsKey(existing.getStorageImagenId())) {
+                    // Las claves de un archivo con una re-subida pendiente (incluido este mismo)
+                    // no se reutilizan: los fragmentos nuevos de ese plan las sobrescriben
+                    storageImagenId = existing.getStorageImagenId();
+                    storageChunkIndex = existing.getStorageChunkIndex();
+                    existingReplicas = findReplicas(existing.storageKey(), metadata);
+                    if (!existingReplicas.isEmpty()) {
+                        // La reserva fija el fragmento: no se reclama aunque se borre su dueño
+                        deduplicationService.addReference(existing, imagenId);
+                    }
+                }
+
+                if (!existingReplicas.isEmpty()) {
+                    System.out.println("   Fragmento " + i + ": ♻️  ya almacenado como " +
+                                       storageImagenId + "#" + storageChunkIndex);
+                    for (ChunkMetadata replica : existingReplicas) {
+                        ChunkMetadata chunk = new ChunkMetadata(i, replica.getChunkserverId(), replica.getChunkserverUrl());
+                        chunk.setReplicaIndex(replica.getReplicaIndex());
+                        chunk.setContentHash(hash);
+                        chunk.setDeduplicated(true);
+                        chunk.setHot(replica.isHot());
+                        chunk.setStorageImagenId(storageImagenId);
+                        chunk.setStorageChunkIndex(storageChunkIndex);
+                        metadata.getChunks().add(chunk);
+                    }
+                    deduplicatedChunks++;
+                    continue;
+                }
+            }
+
+            // 2. Contenido nuevo: asignar réplicas frescas
+            List<String> replicaLocations = members != null
+                    ? selectChunkserversByRendezvous(imagenId, i, members, REPLICATION_FACTOR)
+                    : selectChunkserversForReplicas(REPLICATION_FACTOR);
 
             System.out.println("   Fragmento " + i + ":");
             for (int r = 0; r < replicaLocations.size(); r++) {
                 String chunkserver = replicaLocations.get(r);
                 ChunkMetadata chunk = new ChunkMetadata(i, chunkserver, chunkserver);
                 chunk.setReplicaIndex(r); // Índice de réplica
+                chunk.setContentHash(hash);
+                chunk.setStorageImagenId(imagenId);
+                chunk.setStorageChunkIndex(i);
                 metadata.getChunks().add(chunk);
 
                 String replicaType = r == 0 ? "PRIMARIA" : "RÉPLICA " + r;
                 System.out.println("      └─ [" + replicaType + "] → " + chunkserver);
             }
+
+            if (hash != null) {
+                freshInPlan.put(hash, i);
+            }
         }
 
-        // Guardar metadatos EN MEMORIA Y DISCO
-        fileMetadataStore.put(imagenId, metadata);
-        persistenceService.saveFileMetadata(fileMetadataStore);
+        // Guardar el plan como reserva pendiente (sin tocar disco)
+        long createdAt = System.currentTimeMillis();
+        long expiresAt = createdAt + pendingUploadTtlMs;
+        pendingUploads.put(imagenId, new PendingUpload(metadata, createdAt, expiresAt));
+
+        // Lo que el plan reemplazado escribió o fijó se reclama en segundo plano
+        // (las claves que el plan nuevo reutiliza se omiten al borrar)
+        if (!abandoned.isEmpty()) {
+            CompletableFuture.runAsync(() -> reclaimReplicas(abandoned));
+        }
 
         System.out.println();
-        System.out.println("✅ Plan de replicación creado y persistido");
-        System.out.println("   Total de escrituras: " + metadata.getChunks().size());
+        System.out.println("✅ Plan de replicación reservado (pendiente de confirmación)");
+        System.out.println("   Total de escrituras: " + countWritesRequired(metadata));
+        System.out.println("   Fragmentos deduplicados: " + deduplicatedChunks);
+        System.out.println("   Expira en: " + (pendingUploadTtlMs / 1000) + " s");
         System.out.println();
 
         return metadata;
     }
 
+    /**
+     * Confirma un upload pendiente una vez que el cliente escribió sus fragmentos:
+     * a partir de aquí el archivo es visible y se persiste en disco
+     */
+    public FileMetadata commitUpload(String imagenId) {
+        // 1. Validar el plan y elegir los fragmentos cuyo hash hay que comprobar
+        PendingUpload pending;
+        Map<Integer, List<ChunkMetadata>> toVerify;
+        synchronized (this) {
+            pending = checkCommittable(imagenId);
+            toVerify = verifyHashesOnCommit ? chunksEnteringIndex(pending.getMetadata())
+                                            : Collections.emptyMap();
+        }
+
+        // 2. Leer los fragmentos fuera del lock: una lectura lenta no bloquea al resto del Master
+        Set<Integer> verified = verifyContentHashes(imagenId, toVerify);
+
+        // 3. Aplicar el commit si el plan sigue siendo el mismo
+        return completeCommit(pending, verified);
+    }
+
+    private synchronized FileMetadata completeCommit(PendingUpload pending, Set<Integer> verified) {
+        String imagenId = pending.getMetadata().getImagenId();
+        if (checkCommittable(imagenId) != pending) {
+            throw new IllegalStateException("El plan de upload de " + imagenId +
+                                            " fue reemplazado durante la confirmación");
+        }
+
+        FileMetadata metadata = pending.getMetadata();
+        if (verifyHashesOnCommit) {
+            // Lo que entraría al índice sin haberse comprobado (p. ej. el contenido indexado
+            // se borró durante la verificación) queda sin hash y no se deduplicará
+            for (Integer chunkIndex : chunksEnteringIndex(metadata).keySet()) {
+                if (!verified.contains(chunkIndex)) {
+                    dropContentHash(metadata, chunkIndex);
+                }
+            }
+        }
+
+        // Re-subida: liberar las referencias de la versión anterior antes de reemplazarla
+        FileMetadata previous = fileMetadataStore.get(imagenId);
+        List<ChunkMetadata> replaced = Collections.emptyList();
+        if (previous != null) {
+            replaced = reclaimableReplicas(previous, deduplicationService.release(previous));
+        }
+        pendingUploads.remove(imagenId);
+
+        // El timestamp pasa a ser el momento de confirmación: las escrituras del cliente son anteriores
+        metadata.setTimestamp(System.currentTimeMillis());
+        registerContent(metadata);
+        refreshDeduplicatedPlacements(metadata);
+        placementService.compact(metadata, REPLICATION_FACTOR);
+
+        // Guardar metadatos EN MEMORIA Y DISCO (y en los índices ordenados)
+        fileMetadataStore.put(imagenId, metadata);
+        if (previous != null) {
+            namespaceIndex.remove(previous);
+        }
+        namespaceIndex.add(metadata);
+        persistenceService.saveFileMetadata(fileMetadataStore);
+
+        // Réplicas de la versión anterior que la nueva no reutiliza (otros chunkservers o
+        // fragmentos, y fragmentos ajenos cuya última referencia era la versión anterior)
+        if (!replaced.isEmpty()) {
+            List<ChunkMetadata> leftovers = replaced;
+            CompletableFuture.runAsync(() -> reclaimReplicas(leftovers));
+        }
+
+        System.out.println("✅ Upload confirmado y persistido: " + imagenId);
+
+        return metadata;
+    }
+
+    /**
+     * Plan pendiente que todavía se puede confirmar (se llama con el lock tomado)
+     */
+    private PendingUpload checkCommittable(String imagenId) {
+        PendingUpload pending = pendingUploads.get(imagenId);
+        if (pending == null) {
+            throw new RuntimeException("No hay un upload pendiente para: " + imagenId);
+        }
+        if (pending.isExpired(System.currentTimeMillis())) {
+            throw new RuntimeException("El plan de upload expiró: " + imagenId);
+        }
+        checkNotReclaimed(pending);
+
+        if (fileMetadataStore.containsKey(imagenId) && deduplicationService.isStorageSharedWithOthers(imagenId)) {
+            throw new IllegalStateException("Los fragmentos de " + imagenId +
+                                            " son compartidos por otros archivos; use un imagenId nuevo");
+        }
+        return pending;
+    }
+
+    /**
+     * Fragmentos propios con hash declarado que entrarían al índice de deduplicación
+     * (contenido aún no indexado), con sus réplicas
+     */
+    private Map<Integer, List<ChunkMetadata>> chunksEnteringIndex(FileMetadata metadata) {
+        Map<Integer, List<ChunkMetadata>> written = new TreeMap<>();
+        for (ChunkMetadata chunk : metadata.getChunks()) {
+            if (chunk.getContentHash() != null && !chunk.isDeduplicated()) {
+                // Copia: la verificación lee las réplicas fuera del lock
+                written.computeIfAbsent(chunk.getChunkIndex(), i -> new ArrayList<>()).add(new ChunkMetadata(chunk));
+            }
+        }
+
+        Set<String> seen = new HashSet<>();
+        written.values().removeIf(replicas -> {
+            String hash = replicas.get(0).getContentHash();
+            return deduplicationService.lookup(hash) != null || !seen.add(hash);
+        });
+        return written;
+    }
+
+    /**
+     * Comprueba que el contenido escrito por el cliente corresponde al hash que declaró:
+     * un hash falso permitiría que otros archivos reutilicen datos ajenos
+     *
+     * @return índices de los fragmentos cuyo contenido coincide con el hash declarado
+     */
+    private Set<Integer> verifyContentHashes(String imagenId, Map<Integer, List<ChunkMetadata>> toVerify) {
+        Set<Integer> verified = new HashSet<>();
+        for (Map.Entry<Integer, List<ChunkMetadata>> entry : toVerify.entrySet()) {
+            String declared = entry.getValue().get(0).getContentHash();
+            String actual = null;
+            for (ChunkMetadata replica : entry.getValue()) {
+                try {
+                    actual = sha256(chunkserverClient.readChunk(replica.getChunkserverUrl(),
+                                                                replica.getStorageImagenId(),
+                                                                replica.getStorageChunkIndex()));
+                    break;
+                } catch (Exception e) {
+                    // Probar con la siguiente réplica
+                }
+            }
+            if (declared.equals(actual)) {
+                verified.add(entry.getKey());
+                continue;
+            }
+
+            System.err.println("   ⚠️ Fragmento " + entry.getKey() + " de " + imagenId +
+                               (actual == null ? ": no se pudo verificar" : ": el hash no coincide") +
+                               ", no se deduplicará");
+        }
+        return verified;
+    }
+
+    /**
+     * Quita el hash declarado de un fragmento propio para que no entre al índice
+     */
+    private void dropContentHash(FileMetadata metadata, int chunkIndex) {
+        for (ChunkMetadata chunk : metadata.getChunks()) {
+            if (chunk.getChunkIndex() == chunkIndex && !chunk.isDeduplicated()) {
+                chunk.setContentHash(null);
+            }
+        }
+        if (metadata.getContentHashes() != null && chunkIndex < metadata.getContentHashes().size()) {
+            metadata.getContentHashes().set(chunkIndex, null);
+        }
+    }
+
+    private String sha256(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+
+    /**
+     * Registra en el índice de deduplicación el contenido nuevo de un archivo confirmado
+     */
+    private void registerContent(FileMetadata metadata) {
+        String imagenId = metadata.getImagenId();
+        Map<Integer, ChunkMetadata> primaries = new TreeMap<>();
+        for (ChunkMetadata chunk : metadata.getChunks()) {
+            primaries.putIfAbsent(chunk.getChunkIndex(), chunk);
+        }
+
+        // 1. Fragmentos almacenados por este archivo
+        for (ChunkMetadata chunk : primaries.values()) {
+            if (chunk.getContentHash() != null && !chunk.isDeduplicated()) {
+                deduplicationService.register(chunk.getContentHash(), imagenId, chunk.getChunkIndex());
+            }
+        }
+
+        // 2. Duplicados dentro del mismo archivo (los externos ya se fijaron al planificar)
+        for (ChunkMetadata chunk : primaries.values()) {
+            if (chunk.isDeduplicated() && imagenId.equals(chunk.getStorageImagenId())) {
+                ChunkDeduplicationService.DedupEntry entry = deduplicationService.entryFor(chunk.storageKey());
+                if (entry != null) {
+                    deduplicationService.addReference(entry, imagenId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Actualiza la ubicación de los fragmentos deduplicados por si el rebalanceo o la
+     * replicación adaptativa los movieron mientras el plan estaba pendiente
+     */
+    private void refreshDeduplicatedPlacements(FileMetadata metadata) {
+        List<ChunkMetadata> refreshed = new ArrayList<>();
+        Set<Integer> refreshedIndexes = new HashSet<>();
+
+        for (ChunkMetadata chunk : metadata.getChunks()) {
+            boolean external = chunk.isDeduplicated() && !metadata.getImagenId().equals(chunk.getStorageImagenId());
+            if (!external) {
+                refreshed.add(chunk);
+                continue;
+            }
+            if (!refreshedIndexes.add(chunk.getChunkIndex())) {
+                continue;
+            }
+            List<ChunkMetadata> current = findReplicas(chunk.storageKey(), metadata);
+            if (current.isEmpty()) {
+                current = Collections.singletonList(chunk);
+            }
+            for (ChunkMetadata replica : current) {
+                ChunkMetadata copy = new ChunkMetadata(replica);
+                copy.setChunkIndex(chunk.getChunkIndex());
+                copy.setContentHash(chunk.getContentHash());
+                copy.setDeduplicated(true);
+                refreshed.add(copy);
+            }
+        }
+
+        refreshed.sort(Comparator.comparingInt(ChunkMetadata::getChunkIndex)
+                               .thenComparingInt(ChunkMetadata::getReplicaIndex));
+        metadata.setChunks(refreshed);
+    }
+
+    /**
+     * Descarta los planes pendientes cuyo TTL venció y pide a los chunkservers que
+     * borren los fragmentos parciales que el cliente haya alcanzado a escribir
+     */
+    @Scheduled(fixedDelayString = "${master.upload.sweep-interval-ms:60000}")
+    public void sweepExpiredUploads() {
+        long now = System.currentTimeMillis();
+        List<ChunkMetadata> abandoned = new ArrayList<>();
+
+        synchronized (this) {
+            // Un borrado anterior al TTL ya no puede afectar a ningún plan vigente
+            reclaimedReplicas.values().removeIf(reclaimedAt -> reclaimedAt < now - pendingUploadTtlMs);
+
+            Iterator<PendingUpload> iterator = pendingUploads.values().iterator();
+            while (iterator.hasNext()) {
+                PendingUpload pending = iterator.next();
+                if (pending.isExpired(now)) {
+                    iterator.remove();
+                    System.out.println("⌛ Plan de upload expirado: " + pending.getMetadata().getImagenId());
+                    abandoned.addAll(abandonPlan(pending.getMetadata()));
+                }
+            }
+        }
+
+        reclaimReplicas(abandoned);
+    }
+
+    /**
+     * Descarta un plan que ya salió de pendingUploads (expirado o reemplazado)
+     * Debe llamarse con el lock del servicio tomado
+     *
+     * @return réplicas a reclamar: las escrituras parciales del plan y los fragmentos
+     *         ajenos que solo seguían vivos por su reserva (su dueño se borró mientras tanto)
+     */
+    private List<ChunkMetadata> abandonPlan(FileMetadata plan) {
+        List<ChunkMetadata> abandoned = new ArrayList<>(releasePins(plan));
+        for (ChunkMetadata chunk : plan.getChunks()) {
+            if (!chunk.isDeduplicated()) {
+                abandoned.add(chunk);
+            }
+        }
+        return abandoned;
+    }
+
+    /**
+     * Borra réplicas físicas que ya no usa ningún archivo confirmado ni plan pendiente
+     * (planes descartados, versiones reemplazadas, archivos borrados, orígenes de un
+     * rebalanceo, réplicas calientes retiradas, huérfanos)
+     *
+     * Cada réplica se comprueba y se marca "en borrado" bajo el lock; el borrado en el
+     * chunkserver se hace fuera del lock. Si un plan nuevo reutiliza la clave mientras
+     * tanto, su commit se rechaza (ver checkNotReclaimed)
+     *
+     * @return réplicas borradas en su chunkserver
+     */
+    public List<ChunkMetadata> reclaimReplicas(Collection<ChunkMetadata> replicas) {
+        List<ChunkMetadata> claimed = new ArrayList<>();
+        synchronized (this) {
+            Set<String> pending = getPendingReplicaKeys();
+            for (ChunkMetadata chunk : replicas) {
+                String replicaKey = chunk.storageKey() + "@" + chunk.getChunkserverUrl();
+                if (pending.contains(replicaKey) || reclaimingReplicas.contains(replicaKey)
+                    || holdsReplica(chunk.getStorageImagenId(), chunk.getStorageChunkIndex(),
+                                    chunk.getChunkserverUrl())) {
+                    continue;
+                }
+                reclaimingReplicas.add(replicaKey);
+                claimed.add(chunk);
+            }
+        }
+
+        List<ChunkMetadata> deleted = new ArrayList<>();
+        for (ChunkMetadata chunk : claimed) {
+            String replicaKey = chunk.storageKey() + "@" + chunk.getChunkserverUrl();
+            try {
+                chunkserverClient.deleteChunk(chunk.getChunkserverUrl(), chunk.getStorageImagenId(),
+                                              chunk.getStorageChunkIndex());
+                inventoryService.recordDeletion(chunk.getChunkserverUrl(), chunk.storageKey());
+                deleted.add(chunk);
+            } catch (Exception e) {
+                // El fragmento nunca llegó a escribirse o el chunkserver no responde
+                System.err.println("   ⚠️ No se pudo reclamar " + chunk.storageKey() + " en " +
+                                   chunk.getChunkserverUrl() + ": " + e.getMessage());
+            } finally {
+                synchronized (this) {
+                    reclaimingReplicas.remove(replicaKey);
+                    reclaimedReplicas.put(replicaKey, System.currentTimeMillis());
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Reclama una réplica física si nadie la usa
+     *
+     * @return true si se borró del chunkserver
+     */
+    public boolean reclaimReplica(String storageImagenId, int storageChunkIndex, String url) {
+        ChunkMetadata replica = new ChunkMetadata(storageChunkIndex, url, url);
+        replica.setStorageImagenId(storageImagenId);
+        replica.setStorageChunkIndex(storageChunkIndex);
+        return !reclaimReplicas(List.of(replica)).isEmpty();
+    }
+
+    /**
+     * Rechaza el commit si alguna réplica que el plan escribe se reclamó (o se está reclamando)
+     * después de crear el plan: el borrado pudo eliminar lo que escribió el cliente
+     */
+    private void checkNotReclaimed(PendingUpload pending) {
+        for (ChunkMetadata chunk : pending.getMetadata().getChunks()) {
+            if (chunk.isDeduplicated()) {
+                continue;
+            }
+            String replicaKey = chunk.storageKey() + "@" + chunk.getChunkserverUrl();
+            Long reclaimedAt = reclaimedReplicas.get(replicaKey);
+            if (reclaimingReplicas.contains(replicaKey) || (reclaimedAt != null && reclaimedAt >= pending.getCreatedAt())) {
+                throw new IllegalStateException("La réplica " + replicaKey + " se reclamó mientras se escribía; " +
+                                                "vuelva a planificar el upload");
+            }
+        }
+    }
+
+    /**
+     * Libera las referencias que un plan pendiente fijó sobre fragmentos de otros archivos
+     *
+     * @return réplicas de los fragmentos que quedaron sin referencias y deben reclamarse
+     */
+    private List<ChunkMetadata> releasePins(FileMetadata metadata) {
+        List<ChunkMetadata> reclaimable = new ArrayList<>();
+        Set<Integer> seen = new HashSet<>();
+
+        for (ChunkMetadata chunk : metadata.getChunks()) {
+            boolean external = chunk.isDeduplicated() && !metadata.getImagenId().equals(chunk.getStorageImagenId());
+            if (!external || !seen.add(chunk.getChunkIndex())) {
+                continue;
+            }
+            ChunkDeduplicationService.DedupEntry entry = deduplicationService.entryFor(chunk.storageKey());
+            if (entry == null) {
+                continue;
+            }
+            if (deduplicationService.removeReference(entry, metadata.getImagenId())) {
+                for (ChunkMetadata replica : metadata.getChunks()) {
+                    if (replica.getChunkIndex() == chunk.getChunkIndex()) {
+                        reclaimable.add(replica);
+                    }
+                }
+            }
+        }
+        return reclaimable;
+    }
+
+    /**
+     * Resumen de los planes de upload pendientes de confirmación
+     */
+    public synchronized List<Map<String, Object>> listPendingUploads() {
+        List<Map<String, Object>> pending = new ArrayList<>();
+        for (PendingUpload upload : pendingUploads.values()) {
+            FileMetadata metadata = upload.getMetadata();
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("imagenId", metadata.getImagenId());
+            summary.put("size", metadata.getSize());
+            summary.put("writesRequired", countWritesRequired(metadata));
+            summary.put("createdAt", upload.getCreatedAt());
+            summary.put("expiresAt", upload.getExpiresAt());
+            pending.add(summary);
+        }
+        return pending;
+    }
+
+    /**
+     * Réplicas ("clave física@chunkserver") que los planes pendientes pueden estar escribiendo
+     */
+    public Set<String> getPendingReplicaKeys() {
+        Set<String> keys = new HashSet<>();
+        for (PendingUpload pending : pendingUploads.values()) {
+            for (ChunkMetadata chunk : pending.getMetadata().getChunks()) {
+                keys.add(chunk.storageKey() + "@" + chunk.getChunkserverUrl());
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Momento en que expira el plan pendiente de un archivo (0 si no hay plan)
+     */
+    public long getPendingExpiration(String imagenId) {
+        PendingUpload pending = pendingUploads.get(imagenId);
+        return pending != null ? pending.getExpiresAt() : 0;
+    }
+
+    /**
+     * Número de escrituras que el cliente debe realizar (los fragmentos deduplicados no se escriben)
+     */
+    public long countWritesRequired(FileMetadata metadata) {
+        return metadata.getChunks().stream().filter(c -> !c.isDeduplicated()).count();
+    }
+
+    /**
+     * Busca las réplicas actuales de un fragmento físico entre los archivos que lo referencian
+     */
+    private List<ChunkMetadata> findReplicas(String storageKey, FileMetadata inProgress) {
+        List<FileMetadata> candidates = new ArrayList<>();
+        candidates.add(inProgress);
+        for (String referrer : deduplicationService.referrers(storageKey)) {
+            FileMetadata metadata = fileMetadataStore.get(referrer);
+            if (metadata != null) {
+                candidates.add(metadata);
+            }
+        }
+        // Si solo lo fijan reservas pendientes, su ubicación está en el plan
+        for (String referrer : deduplicationService.referrers(storageKey)) {
+            PendingUpload pending = pendingUploads.get(referrer);
+            if (pending != null) {
+                candidates.add(pending.getMetadata());
+            }
+        }
+
+        for (FileMetadata candidate : candidates) {
+            List<ChunkMetadata> replicas = new ArrayList<>();
+            for (ChunkMetadata chunk : candidate.getChunks()) {
+                if (storageKey.equals(chunk.storageKey())) {
+                    replicas.add(chunk);
+                }
+            }
+            if (!replicas.isEmpty()) {
+                return replicas;
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Normaliza un hash de contenido: SHA-256 del fragmento en hexadecimal (64 caracteres)
+     *
+     * @return el hash en minúsculas, o null si el fragmento no declara hash
+     */
+    private String normalizeHash(String hash) {
+        if (hash == null || hash.isBlank()) {
+            return null;
+        }
+        String normalized = hash.trim().toLowerCase(Locale.ROOT);
+        if (!SHA256_HEX.matcher(normalized).matches()) {
+            throw new IllegalArgumentException("Hash de fragmento inválido (se espera SHA-256 en hexadecimal): " + hash);
+        }
+        return normalized;
+    }
+
+    /**
+     * Completa la clave física de metadatos persistidos antes de la deduplicación
+     */
+    private void fillStorageKeys(FileMetadata metadata) {
+        for (ChunkMetadata chunk : metadata.getChunks()) {
+            if (chunk.getStorageImagenId() == null) {
+                chunk.setStorageImagenId(metadata.getImagenId());
+            }
+            if (chunk.getStorageChunkIndex() == null) {
+                chunk.setStorageChunkIndex(chunk.getChunkIndex());
+            }
+        }
+    }
+
+    /**
+     * Selecciona los N chunkservers de mayor peso rendezvous para un fragmento
+     */
+    private List<String> selectChunkserversByRendezvous(String imagenId, int chunkIndex,
+                                                        List<String> members, int numReplicas) {
+        List<String> ranked = placementService.rank(imagenId, chunkIndex, members);
+        return new ArrayList<>(ranked.subList(0, Math.min(numReplicas, ranked.size())));
+    }
+
+    /**
+     * Reconstruye las réplicas de un archivo rendezvous cargado desde disco (hash + overrides)
+     */
+    private void materializePlacement(FileMetadata metadata) {
+        if (!metadata.isRendezvous()) {
+            return;
+        }
+        try {
+            metadata.setChunks(placementService.materialize(metadata, REPLICATION_FACTOR));
+        } catch (IllegalArgumentException e) {
+            System.err.println("❌ No se pudo reconstruir la ubicación de " + metadata.getImagenId() +
+                               ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reemplaza las réplicas de un archivo (copy-on-write) y recalcula sus overrides
+     */
+    private void updateChunks(FileMetadata metadata, List<ChunkMetadata> chunks) {
+        metadata.setChunks(chunks);
+        placementService.compact(metadata, REPLICATION_FACTOR);
+    }
+
     /**
      * Selecciona N chunkservers diferentes para almacenar réplicas
      */
     private List<String> selectChunkserversForReplicas(int numReplicas) {
         List<String> selected = new ArrayList<>();
-        List<String> available = new ArrayList<>(chunkservers);
+        List<String> available = getActiveChunkservers();
 
         // No podemos tener más réplicas que chunkservers disponibles
         int actualReplicas = Math.min(numReplicas, available.size());
@@ -131,14 +821,296 @@ public class MasterService {
 
     /**
      * Elimina metadatos de un archivo DE MEMORIA Y DISCO
+     *
+     * @return réplicas cuyo almacenamiento físico ya no referencia ningún archivo y deben
+     *         borrarse de los chunkservers (las compartidas por deduplicación se conservan)
      */
-    public void deleteFile(String imagenId) {
+    public synchronized List<ChunkMetadata> deleteFile(String imagenId) {
         FileMetadata metadata = fileMetadataStore.remove(imagenId);
-        if (metadata != null) {
-            persistenceService.deleteFileMetadata(imagenId, fileMetadataStore);
-            System.out.println("🗑️ Metadatos eliminados de memoria y disco: " + imagenId);
-            System.out.println("   Réplicas eliminadas: " + metadata.getChunks().size());
+        if (metadata == null) {
+            return Collections.emptyList();
+        }
+        namespaceIndex.remove(metadata);
+
+        List<ChunkMetadata> reclaimable = reclaimableReplicas(metadata, deduplicationService.release(metadata));
+
+        persistenceService.deleteFileMetadata(imagenId, fileMetadataStore);
+        System.out.println("🗑️ Metadatos eliminados de memoria y disco: " + imagenId);
+        System.out.println("   Réplicas eliminadas: " + metadata.getChunks().size());
+        System.out.println("   Réplicas físicas a reclamar: " + reclaimable.size());
+
+        return reclaimable;
+    }
+
+    /**
+     * Réplicas físicas de una versión liberada que ya nadie referencia: las propias no indexadas
+     * y las de claves cuya última referencia se acaba de liberar (una por clave y chunkserver)
+     */
+    private List<ChunkMetadata> reclaimableReplicas(FileMetadata metadata, Set<String> releasedKeys) {
+        Map<String, ChunkMetadata> reclaimable = new LinkedHashMap<>();
+        for (ChunkMetadata chunk : metadata.getChunks()) {
+            String storageKey = chunk.storageKey();
+            boolean owned = !chunk.isDeduplicated() && !deduplicationService.isIndexed(storageKey);
+            if (owned || releasedKeys.contains(storageKey)) {
+                reclaimable.putIfAbsent(storageKey + "@" + chunk.getChunkserverUrl(), chunk);
+            }
+        }
+        return new ArrayList<>(reclaimable.values());
+    }
+
+    /**
+     * Mueve una réplica física de un chunkserver a otro en TODOS los archivos que la referencian
+     * El contenido ya debe haber sido copiado al destino
+     *
+     * @return número de archivos actualizados (0 si la réplica ya no existe)
+     * @throws IllegalStateException si el destino ya tiene una réplica de la clave física
+     */
+    public synchronized int relocateReplica(String storageImagenId, int storageChunkIndex,
+                                            String fromUrl, String toUrl) {
+        String storageKey = storageImagenId + "#" + storageChunkIndex;
+        int updated = 0;
+
+        if (holdsReplica(storageImagenId, storageChunkIndex, toUrl)) {
+            throw new IllegalStateException(toUrl + " ya tiene una réplica de " + storageKey);
+        }
+
+        for (FileMetadata metadata : filesReferencing(storageImagenId, storageKey)) {
+            // Copy-on-write: los lectores concurrentes ven la lista anterior o la nueva, nunca una a medias
+            List<ChunkMetadata> chunks = new ArrayList<>(metadata.getChunks());
+            boolean changed = false;
+            for (int k = 0; k < chunks.size(); k++) {
+                ChunkMetadata chunk = chunks.get(k);
+                if (storageKey.equals(chunk.storageKey()) && fromUrl.equals(chunk.getChunkserverUrl())) {
+                    ChunkMetadata moved = new ChunkMetadata(chunk);
+                    moved.setChunkserverId(toUrl);
+                    moved.setChunkserverUrl(toUrl);
+                    moved.setMissing(false); // El contenido acaba de copiarse al destino
+                    chunks.set(k, moved);
+                    changed = true;
+                }
+            }
+            if (changed) {
+                updateChunks(metadata, chunks);
+                updated++;
+            }
+        }
+
+        if (updated > 0) {
+            persistenceService.saveFileMetadata(fileMetadataStore);
+        }
+        return updated;
+    }
+
+    /**
+     * Indica si algún archivo tiene una réplica de la clave física en el chunkserver indicado
+     */
+    public synchronized boolean holdsReplica(String storageImagenId, int storageChunkIndex, String url) {
+        String storageKey = storageImagenId + "#" + storageChunkIndex;
+        for (FileMetadata metadata : filesReferencing(storageImagenId, storageKey)) {
+            for (ChunkMetadata chunk : metadata.getChunks()) {
+                if (storageKey.equals(chunk.storageKey()) && url.equals(chunk.getChunkserverUrl())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Archivos confirmados que leen la clave física (su dueño y los que la deduplican)
+     */
+    public synchronized Set<String> referrersOf(String storageImagenId, int storageChunkIndex) {
+        Set<String> ids = new HashSet<>();
+        filesReferencing(storageImagenId, storageImagenId + "#" + storageChunkIndex)
+                .forEach(metadata -> ids.add(metadata.getImagenId()));
+        return ids;
+    }
+
+    /**
+     * Agrega réplicas físicas (ya copiadas a sus chunkservers) a TODOS los archivos que las
+     * referencian y persiste una sola vez
+     *
+     * @param replicas clave física y chunkserver destino de cada réplica nueva
+     * @param hot true si son réplicas adicionales de imagen caliente
+     * @return réplicas que quedaron registradas en al menos un archivo
+     */
+    public synchronized List<ChunkMetadata> addReplicas(Collection<ChunkMetadata> replicas, boolean hot) {
+        List<ChunkMetadata> added = new ArrayList<>();
+        for (ChunkMetadata replica : replicas) {
+            if (addReplica(replica.getStorageImagenId(), replica.getStorageChunkIndex(),
+                           replica.getChunkserverUrl(), hot) > 0) {
+                added.add(replica);
+            }
+        }
+
+        if (!added.isEmpty()) {
+            persistenceService.saveFileMetadata(fileMetadataStore);
         }
+        return added;
+    }
+
+    /**
+     * Agrega una réplica a los archivos que referencian su clave física, sin persistir
+     *
+     * @return número de archivos actualizados
+     */
+    private int addReplica(String storageImagenId, int storageChunkIndex, String url, boolean hot) {
+        String storageKey = storageImagenId + "#" + storageChunkIndex;
+        int updated = 0;
+
+        for (FileMetadata metadata : filesReferencing(storageImagenId, storageKey)) {
+            List<ChunkMetadata> chunks = new ArrayList<>(metadata.getChunks());
+
+            // Réplicas actuales agrupadas por fragmento lógico
+            Map<Integer, List<ChunkMetadata>> byChunkIndex = new TreeMap<>();
+            for (ChunkMetadata chunk : chunks) {
+                if (storageKey.equals(chunk.storageKey())) {
+                    byChunkIndex.computeIfAbsent(chunk.getChunkIndex(), k -> new ArrayList<>()).add(chunk);
+                }
+            }
+
+            boolean changed = false;
+            for (List<ChunkMetadata> replicas : byChunkIndex.values()) {
+                if (replicas.stream().anyMatch(c -> url.equals(c.getChunkserverUrl()))) {
+                    continue;
+                }
+                ChunkMetadata added = new ChunkMetadata(replicas.get(0));
+                added.setChunkserverId(url);
+                added.setChunkserverUrl(url);
+                added.setMissing(false);
+                added.setHot(hot);
+                added.setReplicaIndex(replicas.stream().mapToInt(ChunkMetadata::getReplicaIndex).max().orElse(-1) + 1);
+                chunks.add(added);
+                changed = true;
+            }
+            if (changed) {
+                updateChunks(metadata, chunks);
+                updated++;
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Quita réplicas físicas de TODOS los archivos que las referencian y persiste una sola vez
+     * El borrado en los chunkservers queda a cargo del llamador
+     *
+     * @return réplicas que se quitaron de al menos un archivo
+     */
+    public synchronized List<ChunkMetadata> removeReplicas(Collection<ChunkMetadata> replicas) {
+        List<ChunkMetadata> removed = new ArrayList<>();
+        for (ChunkMetadata replica : replicas) {
+            String storageKey = replica.storageKey();
+            String url = replica.getChunkserverUrl();
+            boolean changed = false;
+
+            for (FileMetadata metadata : filesReferencing(replica.getStorageImagenId(), storageKey)) {
+                List<ChunkMetadata> chunks = new ArrayList<>(metadata.getChunks());
+                if (chunks.removeIf(c -> storageKey.equals(c.storageKey()) && url.equals(c.getChunkserverUrl()))) {
+                    updateChunks(metadata, chunks);
+                    changed = true;
+                }
+            }
+            if (changed) {
+                removed.add(replica);
+            }
+        }
+
+        if (!removed.isEmpty()) {
+            persistenceService.saveFileMetadata(fileMetadataStore);
+        }
+        return removed;
+    }
+
+    /**
+     * Busca metadatos de un archivo sin lanzar excepción (null si no existe), para procesos en segundo plano
+     */
+    public FileMetadata findMetadata(String imagenId) {
+        return fileMetadataStore.get(imagenId);
+    }
+
+    /**
+     * Membresía de chunkservers (época vigente o la indicada) para calcular ubicaciones en el cliente
+     */
+    public Map<String, Object> getMembership(Long epoch) {
+        return placementService.getMembershipInfo(epoch, REPLICATION_FACTOR);
+    }
+
+    public int getReplicationFactor() {
+        return REPLICATION_FACTOR;
+    }
+
+    /**
+     * Marca (o desmarca) réplicas físicas como faltantes en TODOS los archivos que las referencian
+     * y persiste una sola vez. Las réplicas faltantes se excluyen de las lecturas hasta que se reparan
+     *
+     * @return réplicas que cambiaron en al menos un archivo
+     */
+    public synchronized List<ChunkMetadata> markReplicasMissing(Collection<ChunkMetadata> replicas, boolean missing) {
+        List<ChunkMetadata> marked = new ArrayList<>();
+        for (ChunkMetadata replica : replicas) {
+            if (markReplicaMissing(replica.getStorageImagenId(), replica.storageKey(),
+                                   replica.getChunkserverUrl(), missing)) {
+                marked.add(replica);
+            }
+        }
+
+        if (!marked.isEmpty()) {
+            persistenceService.saveFileMetadata(fileMetadataStore);
+        }
+        return marked;
+    }
+
+    /**
+     * Cambia la marca de faltante de una réplica en los archivos que la referencian, sin persistir
+     */
+    private boolean markReplicaMissing(String storageImagenId, String storageKey, String url, boolean missing) {
+        boolean updated = false;
+        for (FileMetadata metadata : filesReferencing(storageImagenId, storageKey)) {
+            List<ChunkMetadata> chunks = new ArrayList<>(metadata.getChunks());
+            boolean changed = false;
+            for (int k = 0; k < chunks.size(); k++) {
+                ChunkMetadata chunk = chunks.get(k);
+                if (storageKey.equals(chunk.storageKey()) && url.equals(chunk.getChunkserverUrl())
+                    && chunk.isMissing() != missing) {
+                    ChunkMetadata marked = new ChunkMetadata(chunk);
+                    marked.setMissing(missing);
+                    chunks.set(k, marked);
+                    changed = true;
+                }
+            }
+            if (changed) {
+                updateChunks(metadata, chunks);
+                updated = true;
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Archivos que contienen réplicas de la clave física indicada
+     */
+    private List<FileMetadata> filesReferencing(String storageImagenId, String storageKey) {
+        Set<String> ids = new LinkedHashSet<>();
+        ids.add(storageImagenId);
+        ids.addAll(deduplicationService.referrers(storageKey));
+
+        List<FileMetadata> files = new ArrayList<>();
+        for (String id : ids) {
+            FileMetadata metadata = fileMetadataStore.get(id);
+            if (metadata != null) {
+                files.add(metadata);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Tamaño en bytes de un fragmento lógico de un archivo
+     */
+    public long chunkSizeBytes(FileMetadata metadata, int chunkIndex) {
+        long remaining = metadata.getSize() - (long) chunkIndex * CHUNK_SIZE;
+        return Math.max(0, Math.min(CHUNK_SIZE, remaining));
     }
 
     /**
@@ -148,12 +1120,53 @@ public class MasterService {
         return fileMetadataStore.values();
     }
 
+    /**
+     * Consulta paginada del espacio de nombres usando los índices ordenados
+     *
+     * @param orderBy "imagenId" (prefijo y rango [start, end)) o "timestamp" (rango [from, to))
+     * @param cursor  valor "nextCursor" de la página anterior
+     * @throws IllegalArgumentException si orderBy no es "imagenId" ni "timestamp"
+     */
+    public Map<String, Object> scanFiles(String orderBy, String prefix, String start, String end,
+                                         Long from, Long to, String cursor, int limit) {
+        if (!"imagenId".equals(orderBy) && !"timestamp".equals(orderBy)) {
+            throw new IllegalArgumentException("orderBy inválido (use imagenId o timestamp): " + orderBy);
+        }
+        boolean byTimestamp = "timestamp".equals(orderBy);
+        List<String> ids = byTimestamp
+                ? namespaceIndex.scanByTimestamp(from, to, cursor, limit)
+                : namespaceIndex.scanByImagenId(prefix, start, end, cursor, limit);
+
+        boolean hasMore = ids.size() > limit;
+        List<FileMetadata> files = new ArrayList<>();
+        for (String id : ids.subList(0, Math.min(limit, ids.size()))) {
+            FileMetadata metadata = fileMetadataStore.get(id);
+            if (metadata != null) {
+                files.add(metadata);
+            }
+        }
+
+        String nextCursor = null;
+        if (hasMore && !files.isEmpty()) {
+            FileMetadata last = files.get(files.size() - 1);
+            nextCursor = byTimestamp ? last.getTimestamp() + ":" + last.getImagenId() : last.getImagenId();
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("files", files);
+        result.put("count", files.size());
+        result.put("hasMore", hasMore);
+        result.put("nextCursor", nextCursor);
+        return result;
+    }
+
     /**
      * Registra un nuevo chunkserver (para extensibilidad)
      */
     public void registerChunkserver(String url) {
         if (!chunkservers.contains(url)) {
             chunkservers.add(url);
+            placementService.updateMembership(getActiveChunkservers());
             System.out.println("✅ Nuevo chunkserver registrado: " + url);
             System.out.println("   Total de chunkservers: " + chunkservers.size());
         }
@@ -162,13 +1175,93 @@ public class MasterService {
     /**
      * Remueve un chunkserver (para mantenimiento)
      */
-    public void unregisterChunkserver(String url) {
+    public synchronized void unregisterChunkserver(String url) {
+        if (drainingChunkservers.contains(url)) {
+            // Un chunkserver en drenaje solo se da de baja cuando el rebalanceador lo vació
+            int remaining = countReplicasOn(url);
+            if (remaining > 0) {
+                throw new IllegalStateException("El chunkserver " + url + " sigue en drenaje con " +
+                                                remaining + " réplicas; espere a que se vacíe");
+            }
+        }
         if (chunkservers.remove(url)) {
+            drainingChunkservers.remove(url);
+            placementService.updateMembership(getActiveChunkservers());
             System.out.println("⚠️ Chunkserver removido: " + url);
             System.out.println("   Chunkservers restantes: " + chunkservers.size());
         }
     }
 
+    /**
+     * Réplicas que los archivos confirmados y los planes pendientes tienen en un chunkserver
+     */
+    private int countReplicasOn(String url) {
+        int count = 0;
+        for (FileMetadata metadata : fileMetadataStore.values()) {
+            for (ChunkMetadata chunk : metadata.getChunks()) {
+                if (url.equals(chunk.getChunkserverUrl())) {
+                    count++;
+                }
+            }
+        }
+        for (PendingUpload pending : pendingUploads.values()) {
+            for (ChunkMetadata chunk : pending.getMetadata().getChunks()) {
+                if (url.equals(chunk.getChunkserverUrl())) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Marca un chunkserver para drenaje: deja de recibir fragmentos nuevos y
+     * el rebalanceador mueve sus réplicas antes de darlo de baja
+     */
+    public void drainChunkserver(String url) {
+        if (!chunkservers.contains(url)) {
+            throw new IllegalArgumentException("Chunkserver no registrado: " + url);
+        }
+        if (drainingChunkservers.add(url)) {
+            placementService.updateMembership(getActiveChunkservers());
+            System.out.println("🚰 Chunkserver en drenaje: " + url);
+        }
+    }
+
+    /**
+     * Cancela el drenaje de un chunkserver
+     */
+    public void cancelDrain(String url) {
+        if (drainingChunkservers.remove(url)) {
+            placementService.updateMembership(getActiveChunkservers());
+            System.out.println("↩️ Drenaje cancelado: " + url);
+        }
+    }
+
+    public boolean isDraining(String url) {
+        return drainingChunkservers.contains(url);
+    }
+
+    public Set<String> getDrainingChunkservers() {
+        return new HashSet<>(drainingChunkservers);
+    }
+
+    /**
+     * Todos los chunkservers registrados (incluidos los que están en drenaje)
+     */
+    public List<String> getChunkservers() {
+        return new ArrayList<>(chunkservers);
+    }
+
+    /**
+     * Chunkservers que pueden recibir fragmentos nuevos
+     */
+    public List<String> getActiveChunkservers() {
+        List<String> active = new ArrayList<>(chunkservers);
+        active.removeAll(drainingChunkservers);
+        return active;
+    }
+
     /**
      * Obtiene el estado de salud del sistema
      */
@@ -179,6 +1272,7 @@ public class MasterService {
         health.put("requiredForReplication", REPLICATION_FACTOR);
         health.put("canMaintainReplication", chunkservers.size() >= REPLICATION_FACTOR);
         health.put("filesInMemory", fileMetadataStore.size());
+        health.put("pendingUploads", pendingUploads.size());
 
         // Agregar estadísticas de persistencia
         health.putAll(persistenceService.getStorageStats());
@@ -196,6 +1290,7 @@ public class MasterService {
         stats.put("totalFiles", fileMetadataStore.size());
         stats.put("totalChunkservers", chunkservers.size());
         stats.put("chunkservers", chunkservers);
+        stats.put("drainingChunkservers", drainingChunkservers);
         stats.put("chunkSizeKB", CHUNK_SIZE / 1024);
         stats.put("replicationFactor", REPLICATION_FACTOR);
 
@@ -228,6 +1323,40 @@ public class MasterService {
         // Estadísticas de persistencia
         stats.put("persistenceStats", persistenceService.getStorageStats());
 
+        // Estadísticas de deduplicación
+        stats.put("deduplicationStats", deduplicationService.getStats());
+
         return stats;
     }
+
+    /**
+     * Plan de upload reservado en memoria hasta su confirmación
+     */
+    private static class PendingUpload {
+        private final FileMetadata metadata;
+        private final long createdAt;
+        private final long expiresAt;
+
+        PendingUpload(FileMetadata metadata, long createdAt, long expiresAt) {
+            this.metadata = metadata;
+            this.createdAt = createdAt;
+            this.expiresAt = expiresAt;
+        }
+
+        FileMetadata getMetadata() {
+            return metadata;
+        }
+
+        long getCreatedAt() {
+            return createdAt;
+        }
+
+        long getExpiresAt() {
+            return expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
 }
\ No newline at end of file
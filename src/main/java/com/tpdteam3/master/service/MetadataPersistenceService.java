@@ -1,8 +1,12 @@
 package com.tpdteam3.master.service;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.tpdteam3.master.model.FileMetadata;
+import com.tpdteam3.master.model.FileMetadata.ChunkMetadata;
 import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
@@ -14,7 +18,9 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -31,12 +37,15 @@ public class MetadataPersistenceService {
 
     private Path metadataFilePath;
     private Path tempMetadataFilePath;
+    private Path membershipFilePath;
+    private Path tempMembershipFilePath;
     private final ObjectMapper objectMapper;
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
     public MetadataPersistenceService() {
         this.objectMapper = new ObjectMapper();
         this.objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
+        this.objectMapper.addMixIn(FileMetadata.class, StoredFileMetadata.class);
     }
 
     @PostConstruct
@@ -60,6 +69,8 @@ public class MetadataPersistenceService {
         // Definir rutas de archivos
         metadataFilePath = storagePath.resolve("file_metadata.json");
         tempMetadataFilePath = storagePath.resolve("file_metadata.tmp.json");
+        membershipFilePath = storagePath.resolve("membership.json");
+        tempMembershipFilePath = storagePath.resolve("membership.tmp.json");
 
         // Verificar permisos
         File storageDir = storagePath.toFile();
@@ -183,6 +194,58 @@ public class MetadataPersistenceService {
         System.out.println("🗑️  Metadatos eliminados de persistencia: " + imagenId);
     }
 
+    /**
+     * Carga el historial de membresía de chunkservers (época → chunkservers)
+     */
+    public Map<Long, List<String>> loadMembership() {
+        lock.readLock().lock();
+        try {
+            if (!Files.exists(membershipFilePath)) {
+                return new TreeMap<>();
+            }
+
+            Map<Long, List<String>> history = objectMapper.readValue(
+                    membershipFilePath.toFile(),
+                    objectMapper.getTypeFactory().constructMapType(
+                            TreeMap.class,
+                            objectMapper.getTypeFactory().constructType(Long.class),
+                            objectMapper.getTypeFactory().constructCollectionType(List.class, String.class)
+                    )
+            );
+
+            System.out.println("✅ Historial de membresía cargado: " + history.size() + " épocas");
+            return history;
+
+        } catch (IOException e) {
+            System.err.println("❌ ERROR cargando membresía: " + e.getMessage());
+            e.printStackTrace();
+            return new TreeMap<>();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Guarda el historial de membresía de forma atómica (archivo temporal + renombrado)
+     */
+    public void saveMembership(Map<Long, List<String>> history) {
+        lock.writeLock().lock();
+        try {
+            objectMapper.writeValue(tempMembershipFilePath.toFile(), history);
+            Files.move(
+                    tempMembershipFilePath,
+                    membershipFilePath,
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE
+            );
+        } catch (IOException e) {
+            System.err.println("❌ ERROR persistiendo membresía: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
     /**
      * Obtiene estadísticas del sistema de persistencia
      */
@@ -211,4 +274,34 @@ public class MetadataPersistenceService {
 
         return stats;
     }
+
+    /**
+     * Vista de disco de FileMetadata: los archivos rendezvous guardan solo sus overrides
+     * en lugar de la lista completa de réplicas
+     */
+    abstract static class StoredFileMetadata {
+        @JsonIgnore
+        abstract List<ChunkMetadata> getChunks();
+
+        @JsonIgnore
+        abstract void setChunks(List<ChunkMetadata> chunks);
+
+        @JsonIgnore(false)
+        @JsonProperty("chunks")
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        abstract List<ChunkMetadata> getStoredChunks();
+
+        @JsonIgnore(false)
+        @JsonProperty("chunks")
+        abstract void setStoredChunks(List<ChunkMetadata> chunks);
+
+        @JsonIgnore(false)
+        @JsonProperty("placementOverrides")
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        abstract List<ChunkMetadata> getPlacementOverrides();
+
+        @JsonIgnore(false)
+        @JsonProperty("placementOverrides")
+        abstract void setPlacementOverrides(List<ChunkMetadata> placementOverrides);
+    }
 }
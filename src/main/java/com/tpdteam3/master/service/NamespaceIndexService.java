@@ -0,0 +1,152 @@
+package com.tpdteam3.master.service;
+
+import com.tpdteam3.master.model.FileMetadata;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Índices ordenados secundarios del espacio de nombres (por imagenId y por timestamp)
+ * Se mantienen junto al mapa principal de metadatos y permiten consultas por prefijo
+ * y por rango en O(log n + resultados) con paginación por cursor
+ */
+@Service
+public class NamespaceIndexService {
+
+    private final ConcurrentSkipListSet<String> byImagenId = new ConcurrentSkipListSet<>();
+    private final ConcurrentSkipListSet<TimeKey> byTimestamp = new ConcurrentSkipListSet<>();
+
+    /**
+     * Reconstruye los índices a partir de los metadatos cargados desde disco
+     */
+    public void rebuild(Collection<FileMetadata> files) {
+        byImagenId.clear();
+        byTimestamp.clear();
+        files.forEach(this::add);
+    }
+
+    public void add(FileMetadata metadata) {
+        byImagenId.add(metadata.getImagenId());
+        byTimestamp.add(new TimeKey(metadata.getTimestamp(), metadata.getImagenId()));
+    }
+
+    public void remove(FileMetadata metadata) {
+        byImagenId.remove(metadata.getImagenId());
+        byTimestamp.remove(new TimeKey(metadata.getTimestamp(), metadata.getImagenId()));
+    }
+
+    /**
+     * imagenIds en orden lexicográfico que empiezan con prefix y están en [start, end)
+     *
+     * @param cursor último imagenId devuelto en la página anterior (exclusivo)
+     * @return hasta limit + 1 ids: el elemento extra indica que hay más páginas
+     */
+    public List<String> scanByImagenId(String prefix, String start, String end, String cursor, int limit) {
+        String from = max(prefix, start);
+        boolean inclusive = true;
+        if (cursor != null && (from == null || cursor.compareTo(from) >= 0)) {
+            from = cursor;
+            inclusive = false;
+        }
+
+        NavigableSet<String> range = from != null ? byImagenId.tailSet(from, inclusive) : byImagenId;
+        List<String> ids = new ArrayList<>();
+        for (String id : range) {
+            if ((prefix != null && !id.startsWith(prefix)) || (end != null && id.compareTo(end) >= 0)) {
+                break;
+            }
+            ids.add(id);
+            if (ids.size() > limit) {
+                break;
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * imagenIds en orden de timestamp dentro de [from, to)
+     *
+     * @param cursor "timestamp:imagenId" del último elemento de la página anterior (exclusivo)
+     * @return hasta limit + 1 ids: el elemento extra indica que hay más páginas
+     */
+    public List<String> scanByTimestamp(Long from, Long to, String cursor, int limit) {
+        TimeKey start = new TimeKey(from != null ? from : Long.MIN_VALUE, "");
+        boolean inclusive = true;
+        if (cursor != null) {
+            TimeKey after = TimeKey.parse(cursor);
+            if (after.compareTo(start) >= 0) {
+                start = after;
+                inclusive = false;
+            }
+        }
+
+        List<String> ids = new ArrayList<>();
+        for (TimeKey key : byTimestamp.tailSet(start, inclusive)) {
+            if (to != null && key.timestamp >= to) {
+                break;
+            }
+            ids.add(key.imagenId);
+            if (ids.size() > limit) {
+                break;
+            }
+        }
+        return ids;
+    }
+
+    private String max(String a, String b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        return a.compareTo(b) >= 0 ? a : b;
+    }
+
+    /**
+     * Clave del índice temporal: (timestamp, imagenId)
+     */
+    static class TimeKey implements Comparable<TimeKey> {
+        final long timestamp;
+        final String imagenId;
+
+        TimeKey(long timestamp, String imagenId) {
+            this.timestamp = timestamp;
+            this.imagenId = imagenId;
+        }
+
+        static TimeKey parse(String cursor) {
+            int separator = cursor.indexOf(':');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Cursor inválido: " + cursor);
+            }
+            return new TimeKey(Long.parseLong(cursor.substring(0, separator)), cursor.substring(separator + 1));
+        }
+
+        @Override
+        public int compareTo(TimeKey other) {
+            int byTime = Long.compare(timestamp, other.timestamp);
+            return byTime != 0 ? byTime : imagenId.compareTo(other.imagenId);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TimeKey)) {
+                return false;
+            }
+            TimeKey other = (TimeKey) o;
+            return timestamp == other.timestamp && imagenId.equals(other.imagenId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(timestamp, imagenId);
+        }
+
+        @Override
+        public String toString() {
+            return timestamp + ":" + imagenId;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.tpdteam3.master.service;
+
+import com.tpdteam3.master.model.FileMetadata;
+import com.tpdteam3.master.model.FileMetadata.ChunkMetadata;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * Ubicación determinista de réplicas por rendezvous hashing (highest random weight)
+ *
+ * Cada cambio en los chunkservers activos crea una nueva época de membresía. Para un archivo
+ * con layout (imagenId, numChunks, membershipEpoch), las réplicas del fragmento i son los
+ * primeros min(replicationFactor, |membresía|) chunkservers de la época ordenados por peso
+ * descendente, donde:
+ *
+ *   peso = fmix64(FNV-1a-64(UTF-8("imagenId#i@chunkserverUrl")))  (comparado sin signo,
+ *          empates por URL ascendente)
+ *
+ * Los clientes que conocen la membresía calculan las ubicaciones sin consultar al Master;
+ * las réplicas que difieren del resultado (rebalanceo, réplicas calientes, deduplicación)
+ * se guardan como overrides del archivo
+ */
+@Service
+public class PlacementService {
+
+    public static final String MODE_ROUND_ROBIN = "round-robin";
+    public static final String MODE_RENDEZVOUS = "rendezvous";
+
+    @Autowired
+    private MetadataPersistenceService persistenceService;
+
+    @Value("${master.placement.mode:round-robin}")
+    private String placementMode;
+
+    // Época → chunkservers activos (ordenados)
+    private final NavigableMap<Long, List<String>> membershipHistory = new TreeMap<>();
+
+    @PostConstruct
+    public void init() {
+        synchronized (this) {
+            membershipHistory.putAll(persistenceService.loadMembership());
+        }
+        System.out.println("🧭 Modo de ubicación: " + placementMode);
+    }
+
+    public boolean isRendezvousEnabled() {
+        return MODE_RENDEZVOUS.equalsIgnoreCase(placementMode);
+    }
+
+    /**
+     * Registra la membresía activa; abre una nueva época solo si cambió
+     *
+     * @return época vigente
+     */
+    public synchronized long updateMembership(List<String> activeChunkservers) {
+        List<String> members = new ArrayList<>(activeChunkservers);
+        Collections.sort(members);
+
+        if (!membershipHistory.isEmpty() && membershipHistory.lastEntry().getValue().equals(members)) {
+            return membershipHistory.lastKey();
+        }
+
+        long epoch = membershipHistory.isEmpty() ? 1 : membershipHistory.lastKey() + 1;
+        membershipHistory.put(epoch, Collections.unmodifiableList(members));
+        persistenceService.saveMembership(membershipHistory);
+
+        System.out.println("🧭 Nueva época de membresía " + epoch + ": " + members.size() + " chunkservers");
+        return epoch;
+    }
+
+    public synchronized long getCurrentEpoch() {
+        return membershipHistory.isEmpty() ? 0 : membershipHistory.lastKey();
+    }
+
+    public synchronized List<String> getMembership(long epoch) {
+        List<String> members = membershipHistory.get(epoch);
+        if (members == null) {
+            throw new IllegalArgumentException("Época de membresía desconocida: " + epoch);
+        }
+        return members;
+    }
+
+    /**
+     * Chunkservers de la membresía ordenados por peso para un fragmento
+     */
+    public List<String> rank(String imagenId, int chunkIndex, List<String> members) {
+        List<String> ranked = new ArrayList<>(members);
+        Map<String, Long> weights = new HashMap<>();
+        for (String member : ranked) {
+            weights.put(member, weight(imagenId, chunkIndex, member));
+        }
+        ranked.sort((a, b) -> {
+            int byWeight = Long.compareUnsigned(weights.get(b), weights.get(a));
+            return byWeight != 0 ? byWeight : a.compareTo(b);
+        });
+        return ranked;
+    }
+
+    static long weight(String imagenId, int chunkIndex, String chunkserverUrl) {
+        return Hashing.hash64(imagenId + "#" + chunkIndex + "@" + chunkserverUrl);
+    }
+
+    /**
+     * Réplicas que dicta el hash para cada fragmento del archivo, por clave "chunkIndex:replicaIndex"
+     */
+    private Map<String, ChunkMetadata> expectedSlots(FileMetadata metadata, int replicationFactor) {
+        List<String> members = getMembership(metadata.getMembershipEpoch());
+        int replicas = Math.min(replicationFactor, members.size());
+
+        Map<String, ChunkMetadata> slots = new LinkedHashMap<>();
+        for (int i = 0; i < metadata.getNumChunks(); i++) {
+            List<String> ranked = rank(metadata.getImagenId(), i, members);
+            for (int r = 0; r < replicas; r++) {
+                String url = ranked.get(r);
+                ChunkMetadata chunk = new ChunkMetadata(i, url, url);
+                chunk.setReplicaIndex(r);
+                chunk.setContentHash(contentHash(metadata, i));
+                chunk.setStorageImagenId(metadata.getImagenId());
+                chunk.setStorageChunkIndex(i);
+                slots.put(slotKey(chunk), chunk);
+            }
+        }
+        return slots;
+    }
+
+    /**
+     * Recalcula los overrides de un archivo rendezvous a partir de sus réplicas actuales
+     */
+    public void compact(FileMetadata metadata, int replicationFactor) {
+        if (!metadata.isRendezvous()) {
+            return;
+        }
+
+        Map<String, ChunkMetadata> expected = expectedSlots(metadata, replicationFactor);
+        List<ChunkMetadata> overrides = new ArrayList<>();
+        Set<String> present = new HashSet<>();
+
+        for (ChunkMetadata chunk : metadata.getChunks()) {
+            String key = slotKey(chunk);
+            present.add(key);
+            if (!matches(chunk, expected.get(key))) {
+                overrides.add(new ChunkMetadata(chunk));
+            }
+        }
+
+        // Réplicas del hash que ya no existen: se marcan sin chunkserver
+        for (Map.Entry<String, ChunkMetadata> slot : expected.entrySet()) {
+            if (!present.contains(slot.getKey())) {
+                ChunkMetadata removed = new ChunkMetadata(slot.getValue().getChunkIndex(), null, null);
+                removed.setReplicaIndex(slot.getValue().getReplicaIndex());
+                overrides.add(removed);
+            }
+        }
+
+        metadata.setPlacementOverrides(overrides);
+    }
+
+    /**
+     * Reconstruye la lista completa de réplicas de un archivo rendezvous (hash + overrides)
+     */
+    public List<ChunkMetadata> materialize(FileMetadata metadata, int replicationFactor) {
+        Map<String, ChunkMetadata> slots = expectedSlots(metadata, replicationFactor);
+
+        List<ChunkMetadata> overrides = metadata.getPlacementOverrides() != null
+                ? metadata.getPlacementOverrides()
+                : Collections.emptyList();
+        for (ChunkMetadata override : overrides) {
+            slots.put(slotKey(override), new ChunkMetadata(override));
+        }
+
+        List<ChunkMetadata> chunks = new ArrayList<>();
+        for (ChunkMetadata chunk : slots.values()) {
+            if (chunk.getChunkserverUrl() != null) {
+                chunks.add(chunk);
+            }
+        }
+        chunks.sort(Comparator.comparingInt(ChunkMetadata::getChunkIndex)
+                            .thenComparingInt(ChunkMetadata::getReplicaIndex));
+        return chunks;
+    }
+
+    /**
+     * Información de membresía para que los clientes calculen ubicaciones localmente
+     */
+    public synchronized Map<String, Object> getMembershipInfo(Long epoch, int replicationFactor) {
+        long requested = epoch != null ? epoch : getCurrentEpoch();
+
+        Map<String, Object> info = new HashMap<>();
+        info.put("placementMode", isRendezvousEnabled() ? MODE_RENDEZVOUS : MODE_ROUND_ROBIN);
+        info.put("epoch", requested);
+        info.put("currentEpoch", getCurrentEpoch());
+        info.put("chunkservers", requested > 0 ? getMembership(requested) : Collections.emptyList());
+        info.put("replicationFactor", replicationFactor);
+        info.put("hash", "fmix64(FNV-1a-64(UTF-8(imagenId#chunkIndex@chunkserverUrl))), unsigned desc, ties by url");
+        return info;
+    }
+
+    private boolean matches(ChunkMetadata actual, ChunkMetadata expected) {
+        return expected != null
+               && Objects.equals(actual.getChunkserverUrl(), expected.getChunkserverUrl())
+               && Objects.equals(actual.getChunkserverId(), expected.getChunkserverId())
+               && actual.storageKey().equals(expected.storageKey())
+               && !actual.isDeduplicated()
+               && !actual.isMissing()
+               && Objects.equals(actual.getContentHash(), expected.getContentHash());
+    }
+
+    private String contentHash(FileMetadata metadata, int chunkIndex) {
+        List<String> hashes = metadata.getContentHashes();
+        return hashes != null && chunkIndex < hashes.size() ? hashes.get(chunkIndex) : null;
+    }
+
+    private String slotKey(ChunkMetadata chunk) {
+        return chunk.getChunkIndex() + ":" + chunk.getReplicaIndex();
+    }
+}
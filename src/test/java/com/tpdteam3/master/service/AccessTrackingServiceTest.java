@@ -0,0 +1,57 @@
+package com.tpdteam3.master.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AccessTrackingServiceTest {
+
+    private AccessTrackingService tracker;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        tracker = new AccessTrackingService();
+        TestCluster.setField(tracker, "promoteThreshold", 3L);
+        TestCluster.setField(tracker, "maxCandidates", 1000);
+    }
+
+    @Test
+    void estimateNeverUndercounts() {
+        for (int i = 0; i < 2000; i++) {
+            for (int n = 0; n <= i % 7; n++) {
+                tracker.recordAccess("img-" + i);
+            }
+        }
+
+        for (int i = 0; i < 2000; i++) {
+            assertTrue(tracker.estimate("img-" + i) >= i % 7 + 1);
+        }
+    }
+
+    @Test
+    void decayHalvesEstimates() {
+        for (int n = 0; n < 10; n++) {
+            tracker.recordAccess("img");
+        }
+        assertEquals(10L, tracker.estimate("img"));
+
+        tracker.decay();
+        assertEquals(5L, tracker.estimate("img"));
+        tracker.decay();
+        assertEquals(2L, tracker.estimate("img"));
+    }
+
+    @Test
+    void onlyIdsReachingTheThresholdBecomeCandidates() {
+        for (int n = 0; n < 3; n++) {
+            tracker.recordAccess("hot");
+        }
+        tracker.recordAccess("cold");
+        tracker.recordAccess("cold");
+
+        assertEquals(Set.of("hot"), tracker.getCandidates());
+    }
+}
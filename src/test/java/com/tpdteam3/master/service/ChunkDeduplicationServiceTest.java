@@ -0,0 +1,162 @@
+package com.tpdteam3.master.service;
+
+import com.tpdteam3.master.model.FileMetadata;
+import com.tpdteam3.master.model.FileMetadata.ChunkMetadata;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkDeduplicationServiceTest {
+
+    private static final String HASH = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+    private static final String OTHER_HASH = "60303ae22b998861bce3b28f33eec1be758a213c86c93c076dbe9f558c11c752";
+
+    @Test
+    void planCommitAndDeleteKeepSharedChunkUntilLastReference() {
+        ChunkDeduplicationService service = new ChunkDeduplicationService();
+
+        // Commit de A: registra su contenido
+        FileMetadata a = file("A", stored("A", 0, HASH));
+        service.register(HASH, "A", 0);
+
+        // Plan de B: reutiliza A#0 y lo fija con una referencia
+        ChunkDeduplicationService.DedupEntry entry = service.lookup(HASH);
+        assertEquals("A#0", entry.storageKey());
+        service.addReference(entry, "B");
+        FileMetadata b = file("B", deduplicated(0, "A", 0, HASH));
+
+        assertEquals(Set.of("A", "B"), service.referrers("A#0"));
+        assertTrue(service.isStorageSharedWithOthers("A"));
+
+        // Borrar A no reclama el fragmento: B sigue leyéndolo
+        assertTrue(service.release(a).isEmpty());
+        assertTrue(service.isIndexed("A#0"));
+
+        // Borrar B sí lo reclama
+        assertEquals(Set.of("A#0"), service.release(b));
+        assertFalse(service.isIndexed("A#0"));
+        assertNull(service.lookup(HASH));
+    }
+
+    @Test
+    void expiredPlanReleasesItsPin() {
+        ChunkDeduplicationService service = new ChunkDeduplicationService();
+        service.register(HASH, "A", 0);
+
+        ChunkDeduplicationService.DedupEntry entry = service.lookup(HASH);
+        service.addReference(entry, "B");
+
+        // El dueño se borra mientras el plan de B sigue pendiente
+        assertTrue(service.release(file("A", stored("A", 0, HASH))).isEmpty());
+
+        // Al descartar el plan, el fragmento queda sin referencias
+        assertTrue(service.removeReference(entry, "B"));
+        assertFalse(service.isIndexed("A#0"));
+    }
+
+    @Test
+    void duplicatesWithinFileCountOneReferenceEach() {
+        ChunkDeduplicationService service = new ChunkDeduplicationService();
+        FileMetadata a = file("A", stored("A", 0, HASH), deduplicated(1, "A", 0, HASH));
+
+        service.rebuild(List.of(a));
+
+        assertEquals(2, service.entryFor("A#0").getRefCount());
+        assertEquals(Set.of("A#0"), service.release(a));
+    }
+
+    @Test
+    void rebuildIndexesCopyThatDeduplicatedChunksRead() {
+        // A y B guardaron el mismo contenido; C deduplica contra B#0
+        FileMetadata a = file("A", stored("A", 0, HASH));
+        FileMetadata b = file("B", stored("B", 0, HASH));
+        FileMetadata c = file("C", deduplicated(0, "B", 0, HASH));
+
+        for (List<FileMetadata> order : List.of(List.of(a, b, c), List.of(c, b, a), List.of(b, c, a))) {
+            ChunkDeduplicationService service = new ChunkDeduplicationService();
+            service.rebuild(order);
+
+            assertEquals("B#0", service.lookup(HASH).storageKey());
+            assertFalse(service.isIndexed("A#0"));
+            assertEquals(Set.of("B", "C"), service.referrers("B#0"));
+        }
+    }
+
+    @Test
+    void rebuildCountsReferencesByStorageKey() {
+        FileMetadata a = file("A", stored("A", 0, HASH));
+        FileMetadata b = file("B", stored("B", 0, HASH));
+        FileMetadata c = file("C", deduplicated(0, "B", 0, HASH));
+
+        ChunkDeduplicationService service = new ChunkDeduplicationService();
+        service.rebuild(List.of(a, b, c));
+
+        // A#0 no está indexado: borrar A no toca el fragmento que lee C
+        assertTrue(service.release(a).isEmpty());
+        assertTrue(service.release(b).isEmpty());
+        assertEquals(Set.of("B#0"), service.release(c));
+    }
+
+    @Test
+    void rebuildPicksSmallestStorageKeyForUnsharedContent() {
+        FileMetadata a = file("A", stored("A", 0, HASH));
+        FileMetadata b = file("B", stored("B", 0, HASH), stored("B", 1, OTHER_HASH));
+
+        for (List<FileMetadata> order : List.of(List.of(a, b), List.of(b, a))) {
+            ChunkDeduplicationService service = new ChunkDeduplicationService();
+            service.rebuild(order);
+
+            assertEquals("A#0", service.lookup(HASH).storageKey());
+            assertEquals("B#1", service.lookup(OTHER_HASH).storageKey());
+            assertEquals(Set.of("A"), service.referrers("A#0"));
+            assertTrue(service.referrers("B#0").isEmpty());
+        }
+    }
+
+    @Test
+    void rebuildMatchesStateBuiltByCommits() {
+        ChunkDeduplicationService live = new ChunkDeduplicationService();
+        live.register(HASH, "A", 0);
+        live.addReference(live.lookup(HASH), "B");
+
+        ChunkDeduplicationService rebuilt = new ChunkDeduplicationService();
+        rebuilt.rebuild(List.of(file("B", deduplicated(0, "A", 0, HASH)), file("A", stored("A", 0, HASH))));
+
+        assertEquals(live.referrers("A#0"), rebuilt.referrers("A#0"));
+        assertEquals(live.getStats(), rebuilt.getStats());
+    }
+
+    private FileMetadata file(String imagenId, ChunkMetadata... chunks) {
+        FileMetadata metadata = new FileMetadata(imagenId, chunks.length * 1024L);
+        for (ChunkMetadata chunk : chunks) {
+            // Tres réplicas por fragmento, como en el Master
+            for (int r = 0; r < 3; r++) {
+                ChunkMetadata replica = new ChunkMetadata(chunk);
+                replica.setReplicaIndex(r);
+                replica.setChunkserverId("http://cs" + r);
+                replica.setChunkserverUrl("http://cs" + r);
+                metadata.getChunks().add(replica);
+            }
+        }
+        return metadata;
+    }
+
+    private ChunkMetadata stored(String imagenId, int chunkIndex, String hash) {
+        ChunkMetadata chunk = new ChunkMetadata(chunkIndex, null, null);
+        chunk.setContentHash(hash);
+        chunk.setStorageImagenId(imagenId);
+        chunk.setStorageChunkIndex(chunkIndex);
+        return chunk;
+    }
+
+    private ChunkMetadata deduplicated(int chunkIndex, String storageImagenId, int storageChunkIndex, String hash) {
+        ChunkMetadata chunk = new ChunkMetadata(chunkIndex, null, null);
+        chunk.setContentHash(hash);
+        chunk.setDeduplicated(true);
+        chunk.setStorageImagenId(storageImagenId);
+        chunk.setStorageChunkIndex(storageChunkIndex);
+        return chunk;
+    }
+}
@@ -0,0 +1,88 @@
+package com.tpdteam3.master.service;
+
+import com.tpdteam3.master.model.FileMetadata.ChunkMetadata;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static com.tpdteam3.master.service.TestCluster.SERVERS;
+import static com.tpdteam3.master.service.TestCluster.content;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkRebalancerServiceTest {
+
+    @TempDir
+    Path metadataDir;
+
+    private TestCluster cluster;
+    private MasterService master;
+    private InMemoryChunkserverClient client;
+    private ChunkRebalancerService rebalancer;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        cluster = new TestCluster(metadataDir);
+        master = cluster.master;
+        client = cluster.client;
+
+        rebalancer = new ChunkRebalancerService();
+        TestCluster.setField(rebalancer, "masterService", master);
+        TestCluster.setField(rebalancer, "chunkserverClient", client);
+        TestCluster.setField(rebalancer, "inventoryService", cluster.inventory);
+        TestCluster.setField(rebalancer, "enabled", true);
+        TestCluster.setField(rebalancer, "tolerance", 0.10);
+        TestCluster.setField(rebalancer, "maxMovesPerCycle", 50);
+        TestCluster.setField(rebalancer, "throttleMs", 0L);
+    }
+
+    @Test
+    void drainedReplicasMoveBeforeTheNodeCanBeUnregistered() {
+        cluster.upload("A", content("x"));
+        String drained = SERVERS.get(0);
+        String target = SERVERS.get(3);
+        master.registerChunkserver(target);
+        master.drainChunkserver(drained);
+
+        assertThrows(IllegalStateException.class, () -> master.unregisterChunkserver(drained));
+
+        rebalancer.runCycle();
+
+        assertEquals(Set.of(SERVERS.get(1), SERVERS.get(2), target), holdersOf("A"));
+        assertTrue(client.holds(target, "A#0"));
+        assertFalse(client.holds(drained, "A#0"));
+
+        master.unregisterChunkserver(drained);
+        assertFalse(master.getChunkservers().contains(drained));
+    }
+
+    @Test
+    void moveIsSkippedWhileAPendingPlanWritesTheTarget() {
+        byte[] x = content("x");
+        cluster.upload("A", x);
+        String drained = SERVERS.get(0);
+        String target = SERVERS.get(3);
+        master.registerChunkserver(target);
+        master.drainChunkserver(drained);
+
+        // La re-subida pendiente de A escribirá A#0 en los chunkservers activos, incluido el destino
+        cluster.plan("A", x);
+
+        rebalancer.runCycle();
+
+        assertTrue(holdersOf("A").contains(drained));
+        assertTrue(client.holds(drained, "A#0"));
+        assertFalse(client.holds(target, "A#0"));
+    }
+
+    private Set<String> holdersOf(String imagenId) {
+        Set<String> holders = new TreeSet<>();
+        for (ChunkMetadata chunk : master.findMetadata(imagenId).getChunks()) {
+            holders.add(chunk.getChunkserverUrl());
+        }
+        return holders;
+    }
+}
@@ -0,0 +1,105 @@
+package com.tpdteam3.master.service;
+
+import com.tpdteam3.master.model.FileMetadata.ChunkMetadata;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static com.tpdteam3.master.service.TestCluster.SERVERS;
+import static com.tpdteam3.master.service.TestCluster.content;
+import static org.junit.jupiter.api.Assertions.*;
+
+class HotReplicationServiceTest {
+
+    private static final long PROMOTE_THRESHOLD = 4;
+
+    @TempDir
+    Path metadataDir;
+
+    private TestCluster cluster;
+    private MasterService master;
+    private InMemoryChunkserverClient client;
+    private AccessTrackingService tracker;
+    private HotReplicationService hotReplication;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        cluster = new TestCluster(metadataDir);
+        master = cluster.master;
+        client = cluster.client;
+        master.registerChunkserver(SERVERS.get(3));
+        master.registerChunkserver(SERVERS.get(4));
+
+        tracker = new AccessTrackingService();
+        TestCluster.setField(tracker, "promoteThreshold", PROMOTE_THRESHOLD);
+        TestCluster.setField(tracker, "maxCandidates", 1000);
+
+        hotReplication = new HotReplicationService();
+        TestCluster.setField(hotReplication, "masterService", master);
+        TestCluster.setField(hotReplication, "accessTracker", tracker);
+        TestCluster.setField(hotReplication, "chunkserverClient", client);
+        TestCluster.setField(hotReplication, "inventoryService", cluster.inventory);
+        TestCluster.setField(hotReplication, "enabled", true);
+        TestCluster.setField(hotReplication, "hotReplicationFactor", 5);
+        TestCluster.setField(hotReplication, "promoteThreshold", PROMOTE_THRESHOLD);
+        TestCluster.setField(hotReplication, "demoteThreshold", 2L);
+    }
+
+    @Test
+    void promotionAddsHotReplicasUpToTheHotFactor() {
+        cluster.upload("A", content("x"));
+
+        access("A", PROMOTE_THRESHOLD);
+        hotReplication.evaluate();
+
+        List<ChunkMetadata> chunks = master.findMetadata("A").getChunks();
+        assertEquals(5, chunks.size());
+        assertEquals(2L, chunks.stream().filter(ChunkMetadata::isHot).count());
+        SERVERS.forEach(url -> assertTrue(client.holds(url, "A#0")));
+    }
+
+    @Test
+    void demotionRemovesOnlyTheHotReplicas() {
+        cluster.upload("A", content("x"));
+        access("A", PROMOTE_THRESHOLD);
+        hotReplication.evaluate();
+
+        tracker.decay();
+        tracker.decay();
+        hotReplication.evaluate();
+
+        List<ChunkMetadata> chunks = master.findMetadata("A").getChunks();
+        assertEquals(3, chunks.size());
+        assertTrue(chunks.stream().noneMatch(ChunkMetadata::isHot));
+        assertEquals(3, client.replicaKeys().size());
+        chunks.forEach(chunk -> assertTrue(client.holds(chunk.getChunkserverUrl(), "A#0")));
+    }
+
+    @Test
+    void hotReplicasStayWhileAnotherReferrerIsHot() {
+        byte[] x = content("x");
+        cluster.upload("A", x);
+        cluster.upload("B", x);
+        access("A", PROMOTE_THRESHOLD);
+        hotReplication.evaluate();
+
+        // A se enfría, pero B (que lee el mismo fragmento) se calienta
+        tracker.decay();
+        tracker.decay();
+        access("B", PROMOTE_THRESHOLD);
+        hotReplication.evaluate();
+
+        assertEquals(5, master.findMetadata("A").getChunks().size());
+        assertEquals(5, master.findMetadata("B").getChunks().size());
+        assertEquals(5, client.replicaKeys().size());
+    }
+
+    private void access(String imagenId, long times) {
+        for (long n = 0; n < times; n++) {
+            tracker.recordAccess(imagenId);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.tpdteam3.master.service;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Chunkservers simulados en memoria: fragmento por "imagenId#chunkIndex@chunkserverUrl"
+ */
+class InMemoryChunkserverClient extends ChunkserverClient {
+
+    private final Map<String, byte[]> stored = new ConcurrentHashMap<>();
+
+    // Se ejecuta una vez antes del próximo borrado, para intercalar operaciones con él
+    volatile Runnable beforeNextDelete;
+
+    @Override
+    public byte[] readChunk(String chunkserverUrl, String imagenId, int chunkIndex) {
+        byte[] data = stored.get(imagenId + "#" + chunkIndex + "@" + chunkserverUrl);
+        if (data == null) {
+            throw new RuntimeException("Fragmento no encontrado en " + chunkserverUrl + ": " + imagenId + "#" + chunkIndex);
+        }
+        return data;
+    }
+
+    @Override
+    public void writeChunk(String chunkserverUrl, String imagenId, int chunkIndex, byte[] data) {
+        stored.put(imagenId + "#" + chunkIndex + "@" + chunkserverUrl, data.clone());
+    }
+
+    @Override
+    public void deleteChunk(String chunkserverUrl, String imagenId, int chunkIndex) {
+        Runnable hook = beforeNextDelete;
+        if (hook != null) {
+            beforeNextDelete = null;
+            hook.run();
+        }
+        stored.remove(imagenId + "#" + chunkIndex + "@" + chunkserverUrl);
+    }
+
+    /**
+     * Pérdida de un fragmento sin pasar por el Master (disco dañado, borrado manual)
+     */
+    void lose(String chunkserverUrl, String storageKey) {
+        stored.remove(storageKey + "@" + chunkserverUrl);
+    }
+
+    boolean holds(String chunkserverUrl, String storageKey) {
+        return stored.containsKey(storageKey + "@" + chunkserverUrl);
+    }
+
+    Set<String> replicaKeys() {
+        return new TreeSet<>(stored.keySet());
+    }
+
+    /**
+     * Claves físicas almacenadas en un chunkserver, como las reportaría en su inventario
+     */
+    Set<String> inventoryOf(String chunkserverUrl) {
+        Set<String> keys = new TreeSet<>();
+        for (String replicaKey : stored.keySet()) {
+            int separator = replicaKey.indexOf('@');
+            if (replicaKey.substring(separator + 1).equals(chunkserverUrl)) {
+                keys.add(replicaKey.substring(0, separator));
+            }
+        }
+        return keys;
+    }
+}
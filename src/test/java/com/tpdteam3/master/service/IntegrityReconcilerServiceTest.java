@@ -0,0 +1,118 @@
+package com.tpdteam3.master.service;
+
+import com.tpdteam3.master.model.FileMetadata.ChunkMetadata;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static com.tpdteam3.master.service.TestCluster.SERVERS;
+import static com.tpdteam3.master.service.TestCluster.content;
+import static org.junit.jupiter.api.Assertions.*;
+
+class IntegrityReconcilerServiceTest {
+
+    @TempDir
+    Path metadataDir;
+
+    private TestCluster cluster;
+    private InMemoryChunkserverClient client;
+    private IntegrityReconcilerService reconciler;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        cluster = new TestCluster(metadataDir);
+        client = cluster.client;
+
+        reconciler = new IntegrityReconcilerService();
+        TestCluster.setField(reconciler, "masterService", cluster.master);
+        TestCluster.setField(reconciler, "inventoryService", cluster.inventory);
+        TestCluster.setField(reconciler, "chunkserverClient", client);
+        TestCluster.setField(reconciler, "enabled", true);
+        TestCluster.setField(reconciler, "maxReportAgeMs", 600000L);
+        TestCluster.setField(reconciler, "maxActionsPerCycle", 100);
+    }
+
+    @Test
+    void missingReplicaIsConfirmedByTwoFreshReportsAndRepaired() throws Exception {
+        cluster.upload("A", content("x"));
+        String lost = SERVERS.get(2);
+        client.lose(lost, "A#0");
+
+        nextCycleWithFreshReports();
+        assertEquals(1, reconciler.getStatus().get("suspectedMissing"));
+        assertFalse(anyMissing());
+
+        nextCycleWithFreshReports();
+        assertEquals(1L, reconciler.getStatus().get("replicasMarkedMissing"));
+        assertEquals(1L, reconciler.getStatus().get("replicasRepaired"));
+        assertTrue(client.holds(lost, "A#0"));
+        assertFalse(anyMissing());
+    }
+
+    @Test
+    void reusedReportDoesNotConfirmAFinding() throws Exception {
+        cluster.upload("A", content("x"));
+        client.lose(SERVERS.get(2), "A#0");
+
+        nextCycleWithFreshReports();
+        reconciler.runCycle();
+
+        assertEquals(1, reconciler.getStatus().get("suspectedMissing"));
+        assertEquals(0L, reconciler.getStatus().get("replicasMarkedMissing"));
+        assertFalse(anyMissing());
+    }
+
+    @Test
+    void replicasCommittedAfterTheReportAreNotSuspected() throws Exception {
+        reconciler.runCycle();
+        Thread.sleep(5);
+        cluster.reportInventories();
+        Thread.sleep(5);
+
+        cluster.upload("A", content("x"));
+        reconciler.runCycle();
+
+        assertEquals(0, reconciler.getStatus().get("suspectedMissing"));
+        assertEquals(0, reconciler.getStatus().get("suspectedOrphans"));
+    }
+
+    @Test
+    void confirmedOrphanIsDeleted() throws Exception {
+        String url = SERVERS.get(0);
+        client.writeChunk(url, "X", 0, content("x"));
+
+        nextCycleWithFreshReports();
+        assertTrue(client.holds(url, "X#0"));
+
+        nextCycleWithFreshReports();
+        assertFalse(client.holds(url, "X#0"));
+        assertEquals(1L, reconciler.getStatus().get("orphansDeleted"));
+    }
+
+    @Test
+    void orphanThatAPlanStartsWritingIsKept() throws Exception {
+        String url = SERVERS.get(0);
+        client.writeChunk(url, "A", 0, content("x"));
+
+        nextCycleWithFreshReports();
+        // El cliente empieza a escribir A#0 en el mismo chunkserver
+        cluster.plan("A", content("x"));
+
+        nextCycleWithFreshReports();
+        assertTrue(client.holds(url, "A#0"));
+        assertEquals(0L, reconciler.getStatus().get("orphansDeleted"));
+    }
+
+    private void nextCycleWithFreshReports() throws InterruptedException {
+        // Los reportes deben ser posteriores al inicio del ciclo anterior
+        Thread.sleep(5);
+        cluster.reportInventories();
+        reconciler.runCycle();
+    }
+
+    private boolean anyMissing() {
+        return cluster.master.findMetadata("A").getChunks().stream().anyMatch(ChunkMetadata::isMissing);
+    }
+}
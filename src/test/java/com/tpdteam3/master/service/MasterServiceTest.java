@@ -0,0 +1,110 @@
+package com.tpdteam3.master.service;
+
+import com.tpdteam3.master.model.FileMetadata;
+import com.tpdteam3.master.model.FileMetadata.ChunkMetadata;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static com.tpdteam3.master.service.TestCluster.content;
+import static org.junit.jupiter.api.Assertions.*;
+
+class MasterServiceTest {
+
+    @TempDir
+    Path metadataDir;
+
+    private TestCluster cluster;
+    private MasterService master;
+    private InMemoryChunkserverClient client;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        cluster = new TestCluster(metadataDir);
+        master = cluster.master;
+        client = cluster.client;
+    }
+
+    @Test
+    void sharedContentIsReclaimedOnlyWithItsLastReferrer() {
+        byte[] x = content("x");
+        cluster.upload("A", x);
+
+        // B reutiliza las réplicas de A#0 sin escribir nada
+        FileMetadata planB = cluster.plan("B", x);
+        assertEquals(0L, master.countWritesRequired(planB));
+        master.commitUpload("B");
+
+        assertTrue(master.reclaimReplicas(master.deleteFile("A")).isEmpty());
+        assertEquals(3, client.replicaKeys().size());
+
+        assertEquals(3, master.reclaimReplicas(master.deleteFile("B")).size());
+        assertTrue(client.replicaKeys().isEmpty());
+    }
+
+    @Test
+    void keysOfAPendingReUploadAreNotDeduplicationTargets() {
+        byte[] x = content("x");
+        cluster.upload("A", x);
+
+        // La re-subida pendiente de A sobrescribirá A#0
+        cluster.plan("A", content("y"));
+
+        FileMetadata planB = cluster.plan("B", x);
+        assertEquals(3L, master.countWritesRequired(planB));
+        assertTrue(planB.getChunks().stream().allMatch(c -> "B".equals(c.getStorageImagenId())));
+    }
+
+    @Test
+    void contentThatDoesNotMatchItsDeclaredHashIsNotIndexed() {
+        byte[] x = content("x");
+        cluster.write(cluster.plan("A", x), content("otro contenido"));
+
+        FileMetadata committed = master.commitUpload("A");
+
+        assertTrue(committed.getChunks().stream().allMatch(c -> c.getContentHash() == null));
+        assertEquals(3L, master.countWritesRequired(cluster.plan("B", x)));
+    }
+
+    @Test
+    void sweeperReclaimsWhatAnExpiredPlanWrote() throws Exception {
+        TestCluster.setField(master, "pendingUploadTtlMs", 1L);
+        byte[] x = content("x");
+        cluster.write(cluster.plan("A", x), x);
+        Thread.sleep(5);
+
+        master.sweepExpiredUploads();
+
+        assertTrue(client.replicaKeys().isEmpty());
+        assertThrows(RuntimeException.class, () -> master.commitUpload("A"));
+    }
+
+    @Test
+    void commitIsRejectedWhenAReclaimOverlapsThePlan() {
+        cluster.upload("A", content("x"));
+        List<ChunkMetadata> reclaimable = master.deleteFile("A");
+
+        // Un plan nuevo de A se crea y se escribe mientras se borran las réplicas de la versión borrada
+        byte[] y = content("y");
+        client.beforeNextDelete = () -> cluster.write(cluster.plan("A", y), y);
+        master.reclaimReplicas(reclaimable);
+
+        assertThrows(IllegalStateException.class, () -> master.commitUpload("A"));
+        assertNull(master.findMetadata("A"));
+    }
+
+    @Test
+    void reUploadCommitReclaimsWhatThePreviousVersionNoLongerUses() throws Exception {
+        cluster.upload("A", content("x0"), content("x1"));
+
+        cluster.upload("A", content("y0"));
+
+        assertTrue(TestCluster.eventually(() -> client.replicaKeys().stream().noneMatch(k -> k.startsWith("A#1@"))));
+        // A#0 lo reutiliza la versión nueva
+        assertEquals(3, client.replicaKeys().size());
+        assertTrue(master.findMetadata("A").getChunks().stream().allMatch(c -> c.getChunkIndex() == 0));
+    }
+}
@@ -0,0 +1,101 @@
+package com.tpdteam3.master.service;
+
+import com.tpdteam3.master.model.FileMetadata;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NamespaceIndexServiceTest {
+
+    private NamespaceIndexService index;
+
+    @BeforeEach
+    void setUp() {
+        index = new NamespaceIndexService();
+        index.rebuild(List.of(
+                file("img-a", 300),
+                file("img-b", 100),
+                file("img-c", 100),
+                file("img-d", 200),
+                file("other", 50)));
+    }
+
+    @Test
+    void prefixScanReturnsOneExtraIdWhenMorePagesExist() {
+        assertEquals(List.of("img-a", "img-b", "img-c"), index.scanByImagenId("img-", null, null, null, 2));
+        assertEquals(List.of("img-a", "img-b", "img-c", "img-d"), index.scanByImagenId("img-", null, null, null, 4));
+    }
+
+    @Test
+    void imagenIdCursorIsExclusive() {
+        assertEquals(List.of("img-c", "img-d"), index.scanByImagenId("img-", null, null, "img-b", 10));
+        assertEquals(List.of(), index.scanByImagenId("img-", null, null, "img-d", 10));
+    }
+
+    @Test
+    void imagenIdRangeEndIsExclusive() {
+        assertEquals(List.of("img-b", "img-c"), index.scanByImagenId(null, "img-b", "img-d", null, 10));
+    }
+
+    @Test
+    void cursorBeforeRangeStartIsIgnored() {
+        assertEquals(List.of("img-c", "img-d"), index.scanByImagenId(null, "img-c", "img-z", "img-a", 10));
+    }
+
+    @Test
+    void paginatingByImagenIdVisitsEveryIdOnce() {
+        StringBuilder visited = new StringBuilder();
+        String cursor = null;
+        List<String> page;
+        do {
+            page = index.scanByImagenId(null, null, null, cursor, 2);
+            List<String> returned = page.subList(0, Math.min(2, page.size()));
+            returned.forEach(id -> visited.append(id).append(' '));
+            cursor = returned.isEmpty() ? null : returned.get(returned.size() - 1);
+        } while (page.size() > 2);
+
+        assertEquals("img-a img-b img-c img-d other ", visited.toString());
+    }
+
+    @Test
+    void timestampScanOrdersTiesByImagenId() {
+        assertEquals(List.of("other", "img-b", "img-c", "img-d", "img-a"), index.scanByTimestamp(null, null, null, 10));
+    }
+
+    @Test
+    void timestampCursorIsExclusiveWithinTies() {
+        assertEquals(List.of("img-c", "img-d", "img-a"), index.scanByTimestamp(null, null, "100:img-b", 10));
+        assertEquals(List.of("img-d", "img-a"), index.scanByTimestamp(null, null, "100:img-c", 10));
+    }
+
+    @Test
+    void timestampRangeIsHalfOpen() {
+        assertEquals(List.of("img-b", "img-c"), index.scanByTimestamp(100L, 200L, null, 10));
+        assertEquals(List.of("img-c", "img-d"), index.scanByTimestamp(100L, 300L, "100:img-b", 1));
+    }
+
+    @Test
+    void removedFilesLeaveBothIndexes() {
+        FileMetadata removed = file("img-b", 100);
+        index.remove(removed);
+
+        assertEquals(List.of("img-a", "img-c"), index.scanByImagenId("img-", null, "img-d", null, 10));
+        assertEquals(List.of("img-c"), index.scanByTimestamp(100L, 101L, null, 10));
+        assertEquals(List.of("other", "img-c", "img-d", "img-a"), index.scanByTimestamp(null, null, null, 10));
+    }
+
+    @Test
+    void malformedTimestampCursorIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> index.scanByTimestamp(null, null, "img-b", 10));
+        assertThrows(IllegalArgumentException.class, () -> index.scanByTimestamp(null, null, "abc:img-b", 10));
+    }
+
+    private FileMetadata file(String imagenId, long timestamp) {
+        FileMetadata metadata = new FileMetadata(imagenId, 1024);
+        metadata.setTimestamp(timestamp);
+        return metadata;
+    }
+}
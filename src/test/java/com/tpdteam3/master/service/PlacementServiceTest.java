@@ -0,0 +1,173 @@
+package com.tpdteam3.master.service;
+
+import com.tpdteam3.master.model.FileMetadata;
+import com.tpdteam3.master.model.FileMetadata.ChunkMetadata;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.reflect.Field;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PlacementServiceTest {
+
+    private static final int REPLICATION_FACTOR = 3;
+    private static final List<String> MEMBERS = List.of(
+            "http://localhost:9001/chunkserver1",
+            "http://localhost:9002/chunkserver2",
+            "http://localhost:9003/chunkserver3",
+            "http://localhost:9004/chunkserver4",
+            "http://localhost:9005/chunkserver5");
+
+    @TempDir
+    Path metadataDir;
+
+    private PlacementService placement;
+    private long epoch;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        MetadataPersistenceService persistence = new MetadataPersistenceService();
+        setField(persistence, "metadataStoragePath", metadataDir.toString());
+        persistence.init();
+
+        placement = new PlacementService();
+        setField(placement, "persistenceService", persistence);
+        setField(placement, "placementMode", PlacementService.MODE_RENDEZVOUS);
+        placement.init();
+        epoch = placement.updateMembership(MEMBERS);
+    }
+
+    @Test
+    void rankDoesNotDependOnMembershipOrder() {
+        List<String> shuffled = new ArrayList<>(MEMBERS);
+        Collections.shuffle(shuffled, new Random(7));
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals(placement.rank("img", i, MEMBERS), placement.rank("img", i, shuffled));
+        }
+    }
+
+    @Test
+    void rankOrdersByUnsignedWeightDescending() {
+        List<String> ranked = placement.rank("img", 3, MEMBERS);
+        for (int r = 1; r < ranked.size(); r++) {
+            long previous = PlacementService.weight("img", 3, ranked.get(r - 1));
+            long current = PlacementService.weight("img", 3, ranked.get(r));
+            assertTrue(Long.compareUnsigned(previous, current) >= 0);
+        }
+    }
+
+    @Test
+    void removingAMemberOnlyMovesItsReplicas() {
+        String removed = MEMBERS.get(2);
+        List<String> remaining = new ArrayList<>(MEMBERS);
+        remaining.remove(removed);
+
+        for (int i = 0; i < 50; i++) {
+            List<String> before = new ArrayList<>(placement.rank("img", i, MEMBERS));
+            before.remove(removed);
+            assertEquals(before, placement.rank("img", i, remaining));
+        }
+    }
+
+    @Test
+    void membershipOnlyOpensNewEpochOnChange() {
+        List<String> reversed = new ArrayList<>(MEMBERS);
+        Collections.reverse(reversed);
+        assertEquals(epoch, placement.updateMembership(reversed));
+        assertEquals(epoch + 1, placement.updateMembership(MEMBERS.subList(0, 4)));
+        assertEquals(MEMBERS, placement.getMembership(epoch));
+        assertThrows(IllegalArgumentException.class, () -> placement.getMembership(epoch + 2));
+    }
+
+    @Test
+    void untouchedFileCompactsToNoOverrides() {
+        FileMetadata metadata = rendezvousFile("img", 4);
+        metadata.setChunks(placement.materialize(metadata, REPLICATION_FACTOR));
+
+        placement.compact(metadata, REPLICATION_FACTOR);
+
+        assertEquals(List.of(), metadata.getPlacementOverrides());
+        assertEquals(4 * REPLICATION_FACTOR, metadata.getChunks().size());
+    }
+
+    @Test
+    void compactThenMaterializeRoundTripsModifiedReplicas() {
+        FileMetadata metadata = rendezvousFile("img", 3);
+        List<ChunkMetadata> chunks = placement.materialize(metadata, REPLICATION_FACTOR);
+
+        // Réplica movida por el rebalanceador
+        ChunkMetadata moved = chunks.get(0);
+        String target = MEMBERS.stream()
+                               .filter(url -> chunks.stream().noneMatch(c -> c.getChunkIndex() == 0
+                                                                            && url.equals(c.getChunkserverUrl())))
+                               .findFirst()
+                               .orElseThrow();
+        moved.setChunkserverId(target);
+        moved.setChunkserverUrl(target);
+
+        // Réplica marcada como faltante por el reconciliador
+        chunks.get(4).setMissing(true);
+
+        // Réplica eliminada
+        ChunkMetadata removed = chunks.remove(chunks.size() - 1);
+
+        // Réplica caliente adicional
+        ChunkMetadata hot = new ChunkMetadata(chunks.get(1));
+        hot.setReplicaIndex(REPLICATION_FACTOR);
+        hot.setHot(true);
+        chunks.add(hot);
+
+        chunks.sort(Comparator.comparingInt(ChunkMetadata::getChunkIndex)
+                              .thenComparingInt(ChunkMetadata::getReplicaIndex));
+        metadata.setChunks(chunks);
+        placement.compact(metadata, REPLICATION_FACTOR);
+
+        assertEquals(4, metadata.getPlacementOverrides().size());
+        assertTrue(metadata.getPlacementOverrides().stream()
+                           .anyMatch(o -> o.getChunkserverUrl() == null
+                                          && o.getChunkIndex() == removed.getChunkIndex()
+                                          && o.getReplicaIndex() == removed.getReplicaIndex()));
+
+        FileMetadata reloaded = rendezvousFile("img", 3);
+        reloaded.setPlacementOverrides(metadata.getPlacementOverrides());
+        assertEquals(describe(chunks), describe(placement.materialize(reloaded, REPLICATION_FACTOR)));
+    }
+
+    @Test
+    void materializeUsesTheFileEpochNotTheCurrentOne() {
+        FileMetadata metadata = rendezvousFile("img", 2);
+        List<ChunkMetadata> before = placement.materialize(metadata, REPLICATION_FACTOR);
+
+        placement.updateMembership(MEMBERS.subList(0, 3));
+
+        assertEquals(describe(before), describe(placement.materialize(metadata, REPLICATION_FACTOR)));
+    }
+
+    private FileMetadata rendezvousFile(String imagenId, int numChunks) {
+        FileMetadata metadata = new FileMetadata(imagenId, numChunks * 32 * 1024L);
+        metadata.setPlacementMode(FileMetadata.PLACEMENT_RENDEZVOUS);
+        metadata.setMembershipEpoch(epoch);
+        metadata.setNumChunks(numChunks);
+        return metadata;
+    }
+
+    private List<String> describe(List<ChunkMetadata> chunks) {
+        List<String> described = new ArrayList<>();
+        for (ChunkMetadata chunk : chunks) {
+            described.add(chunk.getChunkIndex() + ":" + chunk.getReplicaIndex() + "@" + chunk.getChunkserverUrl() +
+                          " " + chunk.storageKey() + " missing=" + chunk.isMissing() + " hot=" + chunk.isHot());
+        }
+        return described;
+    }
+
+    private static void setField(Object target, String name, Object value) throws Exception {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
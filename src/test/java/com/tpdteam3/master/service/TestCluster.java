@@ -0,0 +1,127 @@
+package com.tpdteam3.master.service;
+
+import com.tpdteam3.master.model.FileMetadata;
+import com.tpdteam3.master.model.FileMetadata.ChunkMetadata;
+
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/**
+ * MasterService real (deduplicación, índices, ubicación y persistencia en un directorio temporal)
+ * sobre chunkservers simulados en memoria
+ */
+class TestCluster {
+
+    static final int CHUNK_SIZE = 32 * 1024;
+
+    // Los tres primeros los registra MasterService.init()
+    static final List<String> SERVERS = List.of(
+            "http://localhost:9001/chunkserver1",
+            "http://localhost:9002/chunkserver2",
+            "http://localhost:9003/chunkserver3",
+            "http://localhost:9004/chunkserver4",
+            "http://localhost:9005/chunkserver5");
+
+    final MasterService master = new MasterService();
+    final InMemoryChunkserverClient client = new InMemoryChunkserverClient();
+    final ChunkInventoryService inventory = new ChunkInventoryService();
+
+    private long reportSequence;
+
+    TestCluster(Path metadataDir) throws Exception {
+        MetadataPersistenceService persistence = new MetadataPersistenceService();
+        setField(persistence, "metadataStoragePath", metadataDir.toString());
+        persistence.init();
+
+        PlacementService placement = new PlacementService();
+        setField(placement, "persistenceService", persistence);
+        setField(placement, "placementMode", PlacementService.MODE_ROUND_ROBIN);
+        placement.init();
+
+        setField(master, "persistenceService", persistence);
+        setField(master, "deduplicationService", new ChunkDeduplicationService());
+        setField(master, "chunkserverClient", client);
+        setField(master, "namespaceIndex", new NamespaceIndexService());
+        setField(master, "placementService", placement);
+        setField(master, "inventoryService", inventory);
+        setField(master, "pendingUploadTtlMs", 600000L);
+        setField(master, "verifyHashesOnCommit", true);
+        master.init();
+    }
+
+    /**
+     * Planifica un upload declarando el SHA-256 de cada fragmento
+     */
+    FileMetadata plan(String imagenId, byte[]... chunks) {
+        List<String> hashes = new ArrayList<>();
+        for (byte[] chunk : chunks) {
+            hashes.add(sha256(chunk));
+        }
+        return master.planUpload(imagenId, (long) chunks.length * CHUNK_SIZE, hashes);
+    }
+
+    /**
+     * Escribe lo que el plan pide escribir, como lo haría el cliente
+     */
+    void write(FileMetadata plan, byte[]... chunks) {
+        for (ChunkMetadata chunk : plan.getChunks()) {
+            if (!chunk.isDeduplicated()) {
+                client.writeChunk(chunk.getChunkserverUrl(), chunk.getStorageImagenId(),
+                                  chunk.getStorageChunkIndex(), chunks[chunk.getChunkIndex()]);
+            }
+        }
+    }
+
+    FileMetadata upload(String imagenId, byte[]... chunks) {
+        write(plan(imagenId, chunks), chunks);
+        return master.commitUpload(imagenId);
+    }
+
+    /**
+     * Reporte completo de inventario de cada chunkserver registrado
+     */
+    void reportInventories() {
+        reportSequence++;
+        for (String url : master.getChunkservers()) {
+            inventory.applyReport(url, true, reportSequence, client.inventoryOf(url), null, null);
+        }
+    }
+
+    static byte[] content(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    static String sha256(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Espera a que se cumpla una condición que depende de trabajo en segundo plano
+     */
+    static boolean eventually(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            if (condition.getAsBoolean()) {
+                return true;
+            }
+            Thread.sleep(10);
+        }
+        return condition.getAsBoolean();
+    }
+
+    static void setField(Object target, String name, Object value) throws Exception {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}